@@ -0,0 +1,108 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.protobuf.ByteString;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.End;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+import com.techshroom.protos.Start;
+
+/**
+ * {@link StandardPhosphrDecoder#processMessage(PhosphrMessage, boolean)} for a
+ * whole transfer, without the QR step. Scores are Data messages per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    private static final int PACKETS = 256;
+    private static final int PACKET_SIZE = 2900;
+
+    @Param({ "true", "false" })
+    public boolean selectiveAck;
+
+    private PhosphrMessage start;
+    private final List<PhosphrMessage> data = new ArrayList<>();
+    private PhosphrMessage end;
+
+    @Setup
+    public void setup() {
+        start = PhosphrMessage.newBuilder()
+                .setStart(Start.newBuilder()
+                        .setPacketCount(PACKETS)
+                        .setPacketSize(PACKET_SIZE)
+                        .setFormat(PayloadFormat.BINARY)
+                        .setSelectiveAck(selectiveAck))
+                .build();
+        Random random = new Random(PACKETS);
+        for (int i = 0; i < PACKETS; i++) {
+            byte[] packet = new byte[PACKET_SIZE];
+            random.nextBytes(packet);
+            data.add(PhosphrMessage.newBuilder()
+                    .setSequence(i)
+                    .setData(Data.newBuilder().setContent(ByteString.copyFrom(packet)))
+                    .build());
+        }
+        end = PhosphrMessage.newBuilder().setEnd(End.getDefaultInstance()).build();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void transfer(Blackhole blackhole) {
+        StandardPhosphrDecoder decoder = new StandardPhosphrDecoder();
+        blackhole.consume(decoder.processMessage(start, false));
+        for (PhosphrMessage msg : data) {
+            blackhole.consume(decoder.processMessage(msg, false));
+        }
+        blackhole.consume(decoder.processMessage(end, false));
+        blackhole.consume(decoder.getResult());
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Renders symbols the way a camera would see a clean display: grayscale,
+ * each module a few pixels wide, with a white border.
+ */
+final class Frames {
+
+    static final int SCALE = 2;
+    static final FrameRenderer RENDERER = new FrameRenderer(SCALE);
+
+    static LuminanceSource render(ByteMatrix matrix) {
+        return render(matrix, RENDERER);
+    }
+
+    static LuminanceSource render(ByteMatrix matrix, FrameRenderer renderer) {
+        int width = renderer.getWidth(matrix);
+        int height = renderer.getHeight(matrix);
+        byte[] luminance = renderer.render(matrix, new byte[width * height]);
+        return new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false);
+    }
+
+    static BinaryBitmap bitmap(ByteMatrix matrix) {
+        return bitmap(matrix, RENDERER);
+    }
+
+    static BinaryBitmap bitmap(ByteMatrix matrix, FrameRenderer renderer) {
+        return new BinaryBitmap(new HybridBinarizer(render(matrix, renderer)));
+    }
+
+    private Frames() {
+    }
+
+}
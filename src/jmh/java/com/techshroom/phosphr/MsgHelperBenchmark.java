@@ -0,0 +1,98 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.ByteString;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * {@link MsgHelper} encoding and decoding of one Data symbol. The bitmap is
+ * binarized once, see {@link RenderBenchmark} for that part.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MsgHelperBenchmark {
+
+    // the largest that fits a Base64 symbol at H
+    @Param({ "256", "768" })
+    public int payloadSize;
+
+    @Param({ "L", "M", "Q", "H" })
+    public ErrorCorrectionLevel ecLevel;
+
+    @Param({ "BINARY", "BASE64" })
+    public PayloadFormat format;
+
+    private PhosphrMessage message;
+    private BinaryBitmap bitmap;
+
+    @Setup
+    public void setup() {
+        byte[] payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+        message = PhosphrMessage.newBuilder()
+                .setSequence(1)
+                .setData(Data.newBuilder().setContent(ByteString.copyFrom(payload)))
+                .build();
+        bitmap = Frames.bitmap(MsgHelper.encode(message, format, ecLevel));
+        // fail here rather than in the measurement
+        MsgHelper.decode(bitmap);
+    }
+
+    @Benchmark
+    public ByteMatrix encode() {
+        return MsgHelper.encode(message, format, ecLevel);
+    }
+
+    @Benchmark
+    public PhosphrMessage decode() {
+        return MsgHelper.decode(bitmap);
+    }
+
+}
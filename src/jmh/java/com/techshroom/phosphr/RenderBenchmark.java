@@ -0,0 +1,109 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.ByteString;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.GlobalHistogramBinarizer;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * Rendering a symbol to pixels and binarizing the pixels, per frame. The
+ * reused variants draw into the same buffer each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    @Param({ "256", "2900" })
+    public int payloadSize;
+
+    private ByteMatrix matrix;
+    private LuminanceSource source;
+    private byte[] luminance;
+
+    @Setup
+    public void setup() {
+        byte[] payload = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(payload);
+        matrix = MsgHelper.encode(PhosphrMessage.newBuilder()
+                .setSequence(1)
+                .setData(Data.newBuilder().setContent(ByteString.copyFrom(payload)))
+                .build(), PayloadFormat.BINARY);
+        source = Frames.render(matrix);
+        luminance = source.getMatrix().clone();
+    }
+
+    @Benchmark
+    public LuminanceSource render() {
+        return Frames.render(matrix);
+    }
+
+    @Benchmark
+    public byte[] renderReused() {
+        return Frames.RENDERER.render(matrix, luminance);
+    }
+
+    @Benchmark
+    public BitMatrix matrixSource() throws NotFoundException {
+        return new HybridBinarizer(new ByteMatrixLuminanceSource(matrix, Frames.RENDERER, luminance)).getBlackMatrix();
+    }
+
+    @Benchmark
+    public BitMatrix hybridBinarizer() throws NotFoundException {
+        return new HybridBinarizer(source).getBlackMatrix();
+    }
+
+    @Benchmark
+    public BitMatrix globalHistogramBinarizer() throws NotFoundException {
+        return new GlobalHistogramBinarizer(source).getBlackMatrix();
+    }
+
+}
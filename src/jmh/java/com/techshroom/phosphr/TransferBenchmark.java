@@ -0,0 +1,122 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.PayloadFormat;
+
+/**
+ * Whole transfers between an encoder and a decoder, through rendered and
+ * binarized frames. Besides transfers per second, reports {@code frames} as
+ * frames per second and {@code bytes} as goodput in bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferBenchmark {
+
+    // a transfer that doesn't finish in this many frames is stuck
+    private static final int MAX_FRAMES = 10000;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long frames;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+            bytes = 0;
+        }
+
+    }
+
+    @Param({ "4096", "16384", "65536", "262144" })
+    public int size;
+
+    @Param({ "BINARY", "BASE64" })
+    public PayloadFormat format;
+
+    private byte[] data;
+    private EncoderSettings settings;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        settings = EncoderSettings.builder()
+                .format(format)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] transfer(Counters counters) {
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(data, settings);
+        PhosphrDecoder dec = new StandardPhosphrDecoder();
+        List<BinaryBitmap> replies = new ArrayList<>();
+        int frames = 0;
+        while (!enc.isDataSendCompleted()) {
+            ByteMatrix next = enc.getNextImage(replies.iterator());
+            replies.clear();
+            Optional<ByteMatrix> reply = dec.consumeImage(Frames.bitmap(next));
+            if (reply.isPresent()) {
+                replies.add(Frames.bitmap(reply.get()));
+            }
+            if (++frames > MAX_FRAMES) {
+                throw new IllegalStateException("transfer stuck after " + MAX_FRAMES + " frames");
+            }
+        }
+        counters.frames += frames;
+        counters.bytes += data.length;
+        return dec.getResult().get();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * When {@link StandardPhosphrDecoder} answers Data with a Request. Every
+ * reply is a symbol to make on this side and read on the other, and most
+ * replies say little more than the last one. Starts, Ends and the frame that
+ * completes a transfer are always answered.
+ */
+@AutoValue
+public abstract class AckPolicy {
+
+    public static Builder builder() {
+        return new AutoValue_AckPolicy.Builder()
+                .packets(1)
+                .maxDelayNanos(0)
+                .ackGaps(true);
+    }
+
+    /**
+     * Answer every Data.
+     */
+    public static AckPolicy defaults() {
+        return builder().build();
+    }
+
+    AckPolicy() {
+    }
+
+    /**
+     * The number of packets read before answering. Copies count too, so an
+     * encoder showing its window again while it waits is answered, but keep
+     * this below the encoder's window size so it rarely has to.
+     */
+    public abstract int getPackets();
+
+    /**
+     * The longest time between answers, or {@code 0} for no limit. Checked as
+     * frames arrive, there is nothing to answer without one.
+     */
+    public abstract long getMaxDelayNanos();
+
+    /**
+     * If {@code true}, answer right away when a packet arrives past ones
+     * never seen, so the encoder hears of losses quickly.
+     */
+    public abstract boolean isAckGaps();
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+
+        Builder() {
+        }
+
+        public abstract Builder packets(int packets);
+
+        public abstract Builder maxDelayNanos(long maxDelayNanos);
+
+        public final Builder maxDelay(long maxDelay, TimeUnit unit) {
+            return maxDelayNanos(unit.toNanos(maxDelay));
+        }
+
+        public abstract Builder ackGaps(boolean ackGaps);
+
+        abstract AckPolicy autoBuild();
+
+        public final AckPolicy build() {
+            AckPolicy policy = autoBuild();
+            checkArgument(policy.getPackets() >= 1, "packets must be at least 1, got %s", policy.getPackets());
+            checkArgument(policy.getMaxDelayNanos() >= 0, "max delay must not be negative, got %s", policy.getMaxDelayNanos());
+            return policy;
+        }
+
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size bit set that can be set from many threads without locking.
+ */
+final class AtomicBitSet {
+
+    private final AtomicLongArray words;
+    private final int size;
+    private final AtomicInteger cardinality = new AtomicInteger();
+
+    AtomicBitSet(int size) {
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean get(int index) {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Set a bit.
+     * 
+     * @return {@code true} if this call set it, {@code false} if it was
+     *         already set
+     */
+    boolean set(int index) {
+        int word = index >>> 6;
+        long mask = 1L << index;
+        while (true) {
+            long old = words.get(word);
+            if ((old & mask) != 0) {
+                return false;
+            }
+            if (words.compareAndSet(word, old, old | mask)) {
+                cardinality.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    int cardinality() {
+        return cardinality.get();
+    }
+
+    /**
+     * The first clear bit at or after {@code from}, or {@link #size()} if
+     * there is none.
+     */
+    int nextClearBit(int from) {
+        for (int i = from; i < size; i++) {
+            long word = words.get(i >>> 6);
+            if (word == -1L) {
+                // skip to the next word
+                i |= 63;
+                continue;
+            }
+            if ((word & (1L << i)) == 0) {
+                return i;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A snapshot of the bits from {@code from} to {@code to}, re-based to 0.
+     */
+    BitSet get(int from, int to) {
+        BitSet result = new BitSet(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            if (get(i)) {
+                result.set(i - from);
+            }
+        }
+        return result;
+    }
+
+}
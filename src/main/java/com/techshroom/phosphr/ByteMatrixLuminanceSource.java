@@ -0,0 +1,103 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Arrays;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * A symbol as luminance, drawn as by a {@link FrameRenderer} but without an
+ * image in between. Rows are drawn when asked for, and the whole matrix into
+ * a buffer that can be reused for the next frame.
+ */
+public final class ByteMatrixLuminanceSource extends LuminanceSource {
+
+    private final ByteMatrix symbol;
+    private final FrameRenderer renderer;
+    private byte[] luminance;
+    private boolean drawn;
+
+    public ByteMatrixLuminanceSource(ByteMatrix symbol, FrameRenderer renderer) {
+        this(symbol, renderer, null);
+    }
+
+    /**
+     * @param buffer
+     *            - used for {@link #getMatrix()} if it is exactly the size of
+     *            the image, may be {@code null}
+     */
+    public ByteMatrixLuminanceSource(ByteMatrix symbol, FrameRenderer renderer, byte[] buffer) {
+        super(renderer.getWidth(symbol), renderer.getHeight(symbol));
+        this.symbol = symbol;
+        this.renderer = renderer;
+        this.luminance = buffer != null && buffer.length == getWidth() * getHeight() ? buffer : null;
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        checkArgument(y >= 0 && y < getHeight(), "row %s is outside the image", y);
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        int scale = renderer.getScale();
+        int border = renderer.getQuietZone() * scale;
+        int my = y / scale - renderer.getQuietZone();
+        if (my < 0 || my >= symbol.getHeight()) {
+            Arrays.fill(row, 0, width, (byte) 0xFF);
+            return row;
+        }
+        Arrays.fill(row, 0, border, (byte) 0xFF);
+        int x = border;
+        for (byte module : symbol.getArray()[my]) {
+            Arrays.fill(row, x, x + scale, module == 0 ? (byte) 0xFF : 0);
+            x += scale;
+        }
+        Arrays.fill(row, x, width, (byte) 0xFF);
+        return row;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * The matrix is the buffer given to the constructor when it fits. It is
+     * drawn once.
+     * </p>
+     */
+    @Override
+    public byte[] getMatrix() {
+        if (!drawn) {
+            luminance = renderer.render(symbol, luminance);
+            drawn = true;
+        }
+        return luminance;
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * One color channel of an RGB image as luminance, for reading the planes of
+ * a frame made by {@link MsgHelper#mergePlanes(java.util.List)}.
+ */
+public final class ChannelLuminanceSource extends LuminanceSource {
+
+    public enum Channel {
+
+        RED(16),
+        GREEN(8),
+        BLUE(0);
+
+        private final int shift;
+
+        Channel(int shift) {
+            this.shift = shift;
+        }
+
+    }
+
+    private final byte[] luminance;
+
+    /**
+     * @param pixels
+     *            - packed RGB pixels, row by row, as from
+     *            {@code BufferedImage.getRGB}
+     */
+    public ChannelLuminanceSource(int[] pixels, int width, int height, Channel channel) {
+        this(pixels, width, height, channel, null);
+    }
+
+    /**
+     * @param pixels
+     *            - packed RGB pixels, row by row, as from
+     *            {@code BufferedImage.getRGB}
+     * @param buffer
+     *            - holds the luminance if it is exactly {@code width * height}
+     *            bytes, so one can be reused for each frame, may be
+     *            {@code null}
+     */
+    public ChannelLuminanceSource(int[] pixels, int width, int height, Channel channel, byte[] buffer) {
+        super(width, height);
+        checkArgument(pixels.length >= width * height, "expected %s pixels, got %s", width * height, pixels.length);
+        luminance = buffer != null && buffer.length == width * height ? buffer : new byte[width * height];
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = (byte) (pixels[i] >> channel.shift);
+        }
+    }
+
+    @Override
+    public byte[] getRow(int y, byte[] row) {
+        checkArgument(y >= 0 && y < getHeight(), "row %s is outside the image", y);
+        int width = getWidth();
+        if (row == null || row.length < width) {
+            row = new byte[width];
+        }
+        System.arraycopy(luminance, y * width, row, 0, width);
+        return row;
+    }
+
+    @Override
+    public byte[] getMatrix() {
+        return luminance;
+    }
+
+}
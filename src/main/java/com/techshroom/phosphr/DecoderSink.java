@@ -0,0 +1,85 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Where {@link StandardPhosphrDecoder} puts received data. See
+ * {@link DecoderSinks} for the usual ones.
+ */
+public interface DecoderSink {
+
+    /**
+     * Called when a transfer starts, dropping anything from an earlier one.
+     * 
+     * @param capacity
+     *            - the most bytes the transfer can hold
+     */
+    void start(long capacity) throws IOException;
+
+    /**
+     * Called instead of {@link #start(long)} when a transfer continues from a
+     * {@link TransferCheckpoint}, keeping what was written before.
+     * 
+     * @return {@code false} if the sink can't keep earlier data, the
+     *         transfer then starts over
+     */
+    default boolean resume(long capacity) throws IOException {
+        return false;
+    }
+
+    /**
+     * Write received bytes. May be called from several threads at once, for
+     * any offset, and more than once for the same bytes.
+     */
+    void write(long offset, ByteBuffer content) throws IOException;
+
+    /**
+     * Make the written bytes durable, before a {@link TransferCheckpoint}
+     * records them.
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Called once when every packet has been written.
+     * 
+     * @param length
+     *            - the length of the data
+     */
+    void finish(long length) throws IOException;
+
+    /**
+     * The data as an array, if this sink keeps it in memory. Only called
+     * after {@link #finish(long)}.
+     */
+    default Optional<byte[]> getResult() {
+        return Optional.empty();
+    }
+
+}
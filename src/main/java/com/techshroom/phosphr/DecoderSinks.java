@@ -0,0 +1,261 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * The usual {@link DecoderSink} implementations.
+ */
+public final class DecoderSinks {
+
+    /**
+     * Keep the data in a heap array, available from
+     * {@link PhosphrDecoder#getResult()}.
+     */
+    public static DecoderSink heap() {
+        return new HeapSink();
+    }
+
+    /**
+     * Write each packet straight to its offset in the file. The file is
+     * truncated to the data length when done. Can resume from a
+     * {@link TransferCheckpoint}.
+     */
+    public static DecoderSink fileChannel(FileChannel channel) {
+        return new FileChannelSink(channel);
+    }
+
+    /**
+     * Like {@link #fileChannel(FileChannel)}, but writes through a memory
+     * mapping of the file. Transfers are limited to 2GB. Can resume from a
+     * {@link TransferCheckpoint}.
+     */
+    public static DecoderSink mapped(FileChannel channel) {
+        return new MappedSink(channel);
+    }
+
+    /**
+     * Write the data to the channel in order, as soon as all of the data
+     * before it has arrived. Only packets that arrive out of order are held
+     * in memory. The channel is not closed.
+     */
+    public static DecoderSink streaming(WritableByteChannel channel) {
+        return new StreamingSink(channel);
+    }
+
+    private static final class HeapSink implements DecoderSink {
+
+        private volatile ByteBuffer data;
+        private volatile byte[] result;
+
+        @Override
+        public void start(long capacity) {
+            checkArgument(capacity <= Integer.MAX_VALUE, "too large for a heap array: %s", capacity);
+            data = ByteBuffer.allocate((int) capacity);
+            result = null;
+        }
+
+        @Override
+        public void write(long offset, ByteBuffer content) {
+            ByteBuffer current = data;
+            if (current == null) {
+                // a copy of a packet that raced the one that finished
+                return;
+            }
+            // duplicate so threads don't share a position
+            ByteBuffer target = current.duplicate();
+            target.position((int) offset);
+            target.put(content);
+        }
+
+        @Override
+        public void finish(long length) {
+            byte[] array = data.array();
+            // skip the copy if the last packet was full
+            result = array.length == length ? array : Arrays.copyOf(array, (int) length);
+            data = null;
+        }
+
+        @Override
+        public Optional<byte[]> getResult() {
+            return Optional.ofNullable(result);
+        }
+
+    }
+
+    private static final class FileChannelSink implements DecoderSink {
+
+        private final FileChannel channel;
+
+        FileChannelSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void start(long capacity) throws IOException {
+            channel.truncate(0);
+        }
+
+        @Override
+        public boolean resume(long capacity) {
+            return true;
+        }
+
+        @Override
+        public void write(long offset, ByteBuffer content) throws IOException {
+            // positional writes are safe from several threads
+            long position = offset;
+            while (content.hasRemaining()) {
+                position += channel.write(content, position);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            channel.force(false);
+        }
+
+        @Override
+        public void finish(long length) throws IOException {
+            channel.truncate(length);
+            channel.force(false);
+        }
+
+    }
+
+    private static final class MappedSink implements DecoderSink {
+
+        private final FileChannel channel;
+        private volatile MappedByteBuffer map;
+
+        MappedSink(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void start(long capacity) throws IOException {
+            checkArgument(capacity <= Integer.MAX_VALUE, "too large to map: %s", capacity);
+            channel.truncate(0);
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        @Override
+        public boolean resume(long capacity) throws IOException {
+            checkArgument(capacity <= Integer.MAX_VALUE, "too large to map: %s", capacity);
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return true;
+        }
+
+        @Override
+        public void write(long offset, ByteBuffer content) {
+            ByteBuffer target = map.duplicate();
+            target.position((int) offset);
+            target.put(content);
+        }
+
+        @Override
+        public void flush() {
+            map.force();
+        }
+
+        @Override
+        public void finish(long length) throws IOException {
+            map.force();
+            channel.truncate(length);
+        }
+
+    }
+
+    private static final class StreamingSink implements DecoderSink {
+
+        private final WritableByteChannel channel;
+        // out of order content, by offset
+        private final TreeMap<Long, ByteBuffer> pending = new TreeMap<>();
+        private long written;
+
+        StreamingSink(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public synchronized void start(long capacity) {
+            pending.clear();
+            written = 0;
+        }
+
+        @Override
+        public synchronized void write(long offset, ByteBuffer content) throws IOException {
+            if (offset + content.remaining() <= written) {
+                return;
+            }
+            if (offset > written) {
+                pending.putIfAbsent(offset, content);
+                return;
+            }
+            writeFrom(offset, content);
+            // anything waiting on this can go now
+            for (Map.Entry<Long, ByteBuffer> next = pending.firstEntry(); next != null
+                    && next.getKey() <= written; next = pending.firstEntry()) {
+                pending.pollFirstEntry();
+                writeFrom(next.getKey(), next.getValue());
+            }
+        }
+
+        private void writeFrom(long offset, ByteBuffer content) throws IOException {
+            long end = offset + content.remaining();
+            if (end <= written) {
+                return;
+            }
+            // skip what overlaps the written part
+            ByteBuffer rest = content.duplicate();
+            rest.position(rest.position() + (int) (written - offset));
+            while (rest.hasRemaining()) {
+                channel.write(rest);
+            }
+            written = end;
+        }
+
+        @Override
+        public synchronized void finish(long length) {
+            pending.clear();
+        }
+
+    }
+
+    private DecoderSinks() {
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Skips decoding captured frames that are the same as the last one. A camera
+ * usually captures each shown symbol several times, and reading the symbol is
+ * by far the most expensive part of taking a frame.
+ * 
+ * <p>
+ * Frames are compared pixel by pixel, and are only the same if no more than
+ * a few pixels differ by more than the noise tolerance. Comparing stops at the
+ * first few differing pixels, so a new frame costs little, and a repeated one
+ * costs a pass over it. A skipped frame gets the reply the decoder gave to the
+ * last frame, so lost replies are still shown again.
+ * </p>
+ * 
+ * <p>
+ * Only a frame the decoder read is kept to compare against, see
+ * {@link PhosphrDecoder#readImage(BinaryBitmap)}. Copies of one it couldn't
+ * read are decoded again rather than skipped, so a hard to read symbol gets
+ * more tries. Copies of Data whose acknowledgement an {@link AckPolicy} holds
+ * back are skipped with no reply, like the frame they copy.
+ * </p>
+ * 
+ * <p>
+ * Safe to call from several threads at once. A copy of a frame being decoded
+ * gets no reply, the decoding thread gives it.
+ * </p>
+ */
+public final class DuplicateFrameFilter {
+
+    /**
+     * The default change in luminance that counts as a different pixel. Well
+     * above camera noise, well below the difference of a light and dark
+     * module.
+     */
+    public static final int DEFAULT_TOLERANCE = 48;
+    /**
+     * The default number of different pixels allowed in the same frame. A
+     * different symbol changes thousands.
+     */
+    public static final int DEFAULT_CHANGED_PIXELS = 64;
+
+    private static final class Frame {
+
+        private final int width;
+        private final int height;
+        private final byte[] luminance;
+        // null while the frame is being decoded
+        private volatile Optional<ByteMatrix> reply;
+
+        Frame(int width, int height, byte[] luminance) {
+            this.width = width;
+            this.height = height;
+            this.luminance = luminance;
+        }
+
+    }
+
+    private final PhosphrDecoder decoder;
+    private final PhosphrListener listener;
+    private final int tolerance;
+    private final int changedPixels;
+    private final AtomicLong skippedFrames = new AtomicLong();
+    // the last frame read, or being decoded
+    private Frame last;
+
+    public DuplicateFrameFilter(PhosphrDecoder decoder) {
+        this(decoder, PhosphrListener.NONE);
+    }
+
+    public DuplicateFrameFilter(PhosphrDecoder decoder, PhosphrListener listener) {
+        this(decoder, listener, DEFAULT_TOLERANCE, DEFAULT_CHANGED_PIXELS);
+    }
+
+    /**
+     * @param decoder
+     *            - the decoder to give changed frames to
+     * @param listener
+     *            - hears about skipped frames
+     * @param tolerance
+     *            - the change in luminance, from 0 to 255, that makes a pixel
+     *            different
+     * @param changedPixels
+     *            - the number of different pixels allowed in the same frame
+     */
+    public DuplicateFrameFilter(PhosphrDecoder decoder, PhosphrListener listener, int tolerance,
+            int changedPixels) {
+        checkArgument(tolerance >= 0 && tolerance < 256, "tolerance must be from 0 to 255, got %s", tolerance);
+        checkArgument(changedPixels >= 0, "changed pixels must not be negative, got %s", changedPixels);
+        this.decoder = decoder;
+        this.listener = listener;
+        this.tolerance = tolerance;
+        this.changedPixels = changedPixels;
+    }
+
+    /**
+     * Decode a captured frame with a {@link HybridBinarizer}, unless it is the
+     * same as the last one.
+     * 
+     * @return the image to send back, as from
+     *         {@link PhosphrDecoder#consumeImage(BinaryBitmap)}
+     */
+    public Optional<ByteMatrix> consume(LuminanceSource frame) {
+        byte[] luminance = frame.getMatrix();
+        Frame current;
+        synchronized (this) {
+            Frame previous = last;
+            if (previous != null && isSame(previous, frame.getWidth(), frame.getHeight(), luminance)) {
+                skippedFrames.incrementAndGet();
+                listener.frameSkipped();
+                Optional<ByteMatrix> reply = previous.reply;
+                return reply == null ? Optional.empty() : reply;
+            }
+            // the source may reuse its buffer
+            current = new Frame(frame.getWidth(), frame.getHeight(), luminance.clone());
+            last = current;
+        }
+        ImageResult result = ImageResult.unread();
+        try {
+            result = decoder.readImage(new BinaryBitmap(new HybridBinarizer(frame)));
+            return result.getReply();
+        } finally {
+            current.reply = result.getReply();
+            if (!result.isRead()) {
+                forget(current);
+            }
+        }
+    }
+
+    private synchronized void forget(Frame frame) {
+        if (last == frame) {
+            last = null;
+        }
+    }
+
+    private boolean isSame(Frame previous, int width, int height, byte[] luminance) {
+        if (previous.width != width || previous.height != height) {
+            return false;
+        }
+        byte[] old = previous.luminance;
+        int changed = 0;
+        for (int i = 0; i < old.length; i++) {
+            if (Math.abs((old[i] & 0xFF) - (luminance[i] & 0xFF)) > tolerance && ++changed > changedPixels) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    public Optional<byte[]> getResult() {
+        return decoder.getResult();
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.zip.Deflater;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Ticker;
+import com.techshroom.protos.Compression;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.Symbology;
+
+/**
+ * Settings for {@link StandardPhosphrEncoder}.
+ */
+@AutoValue
+public abstract class EncoderSettings {
+
+    public static Builder builder() {
+        return new AutoValue_EncoderSettings.Builder()
+                .format(PayloadFormat.BINARY)
+                .windowSize(1)
+                .adaptive(false)
+                .symbolsPerFrame(1)
+                .cacheSize(0)
+                .lookAhead(0)
+                .compression(Compression.NONE)
+                .compressionLevel(Deflater.DEFAULT_COMPRESSION)
+                .colorPlanes(false)
+                .resumable(false)
+                .transferId(0)
+                .receivers(1)
+                .symbology(Symbology.QR_CODE)
+                .paced(false)
+                .maxFrameRate(60)
+                .ticker(Ticker.systemTicker())
+                .listener(PhosphrListener.NONE);
+    }
+
+    public static EncoderSettings defaults() {
+        return builder().build();
+    }
+
+    EncoderSettings() {
+    }
+
+    /**
+     * The format to ask for in the handshake.
+     */
+    public abstract PayloadFormat getFormat();
+
+    /**
+     * The number of packets that may be shown without being acknowledged. A
+     * size of {@code 1} is stop-and-wait.
+     */
+    public abstract int getWindowSize();
+
+    /**
+     * If {@code true}, the packet size and error correction level follow the
+     * loss seen in the replies. Losses are found from packets overtaken by
+     * later ones, so this needs a window larger than the reply delay.
+     */
+    public abstract boolean isAdaptive();
+
+    /**
+     * The number of Data symbols tiled into each frame. Frames get larger, so
+     * this is for displays with room to spare. QR codes only.
+     */
+    public abstract int getSymbolsPerFrame();
+
+    /**
+     * The number of encoded Data symbols to keep for re-showing, {@code 0}
+     * to encode every time.
+     */
+    public abstract int getCacheSize();
+
+    /**
+     * The number of upcoming Data symbols to encode on a background thread.
+     * They are kept in the cache, so this can't be larger than
+     * {@link #getCacheSize()}.
+     */
+    public abstract int getLookAhead();
+
+    /**
+     * The compression to ask for in the handshake. The data is sent
+     * uncompressed if compressing it doesn't make it smaller. Compressing
+     * happens up front, and the result is kept in memory.
+     */
+    public abstract Compression getCompression();
+
+    /**
+     * The {@link Deflater} level, lower is faster.
+     */
+    public abstract int getCompressionLevel();
+
+    /**
+     * If {@code true}, every frame is a set of color planes made by
+     * {@link MsgHelper#mergePlanes(java.util.List)}, and if the decoder agrees, Data
+     * frames carry different symbols in each plane. Needs a display and
+     * camera that keep the colors apart.
+     */
+    public abstract boolean isColorPlanes();
+
+    /**
+     * If {@code true}, the data is hashed up front and the hash sent in the
+     * handshake, so a decoder that already has some of it, perhaps from a
+     * {@link TransferCheckpoint}, can say so. Only uncompressed transfers
+     * resume.
+     */
+    public abstract boolean isResumable();
+
+    /**
+     * Names the transfer for resuming, {@code 0} to use part of the content
+     * hash. Only needed to keep transfers of the same data apart.
+     */
+    public abstract long getTransferId();
+
+    /**
+     * The number of decoders watching. With more than one, the encoder waits
+     * for each to answer the Start, keeps track of what each has received,
+     * and shows every packet until all of them have it, the ones most
+     * receivers need first.
+     */
+    public abstract int getReceivers();
+
+    /**
+     * The symbology to ask for in the handshake, see {@link SymbolCodecs}.
+     * Packets shrink to fit symbologies that hold less than a QR code.
+     */
+    public abstract Symbology getSymbology();
+
+    /**
+     * If {@code true}, the encoder picks how long each frame is shown, see
+     * {@link PhosphrEncoder#getFrameNanos()}. The frame rate rises while the
+     * replies show no losses, and is cut when they do. The window is then
+     * kept to the Data shown in one round trip, up to
+     * {@link #getWindowSize()}. Losses are found like with
+     * {@link #isAdaptive()}, so this needs a window larger than the reply
+     * delay.
+     */
+    public abstract boolean isPaced();
+
+    /**
+     * The fastest frame rate when paced, usually the display's refresh rate.
+     */
+    public abstract double getMaxFrameRate();
+
+    /**
+     * The clock that frames are paced and transfers timed by, the system's
+     * by default.
+     */
+    public abstract Ticker getTicker();
+
+    public abstract PhosphrListener getListener();
+
+    public abstract Builder toBuilder();
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+
+        Builder() {
+        }
+
+        public abstract Builder format(PayloadFormat format);
+
+        public abstract Builder windowSize(int windowSize);
+
+        public abstract Builder adaptive(boolean adaptive);
+
+        public abstract Builder symbolsPerFrame(int symbolsPerFrame);
+
+        public abstract Builder cacheSize(int cacheSize);
+
+        public abstract Builder lookAhead(int lookAhead);
+
+        public abstract Builder compression(Compression compression);
+
+        public abstract Builder compressionLevel(int compressionLevel);
+
+        public abstract Builder colorPlanes(boolean colorPlanes);
+
+        public abstract Builder resumable(boolean resumable);
+
+        public abstract Builder transferId(long transferId);
+
+        public abstract Builder receivers(int receivers);
+
+        public abstract Builder symbology(Symbology symbology);
+
+        public abstract Builder paced(boolean paced);
+
+        public abstract Builder maxFrameRate(double maxFrameRate);
+
+        public abstract Builder ticker(Ticker ticker);
+
+        public abstract Builder listener(PhosphrListener listener);
+
+        abstract EncoderSettings autoBuild();
+
+        public final EncoderSettings build() {
+            EncoderSettings settings = autoBuild();
+            checkArgument(settings.getFormat() != PayloadFormat.UNRECOGNIZED, "format must be a known format");
+            checkArgument(settings.getWindowSize() >= 1, "window size must be at least 1, got %s", settings.getWindowSize());
+            checkArgument(settings.getSymbolsPerFrame() >= 1, "symbols per frame must be at least 1, got %s", settings.getSymbolsPerFrame());
+            checkArgument(settings.getCacheSize() >= 0, "cache size must not be negative, got %s", settings.getCacheSize());
+            checkArgument(settings.getLookAhead() >= 0 && settings.getLookAhead() <= settings.getCacheSize(),
+                    "look ahead must be between 0 and the cache size (%s), got %s", settings.getCacheSize(), settings.getLookAhead());
+            checkArgument(settings.getCompression() != Compression.UNRECOGNIZED, "compression must be a known compression");
+            checkArgument(settings.getCompressionLevel() >= Deflater.DEFAULT_COMPRESSION
+                    && settings.getCompressionLevel() <= Deflater.BEST_COMPRESSION,
+                    "compression level must be a Deflater level, got %s", settings.getCompressionLevel());
+            checkArgument(settings.getReceivers() >= 1, "need at least one receiver, got %s", settings.getReceivers());
+            checkArgument(settings.getSymbology() != Symbology.UNRECOGNIZED, "symbology must be a known symbology");
+            checkArgument(settings.getSymbolsPerFrame() == 1 || settings.getSymbology() == Symbology.QR_CODE,
+                    "only QR codes can be tiled, got %s", settings.getSymbology());
+            checkArgument(settings.getMaxFrameRate() > 0, "max frame rate must be positive, got %s", settings.getMaxFrameRate());
+            return settings;
+        }
+
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ReaderException;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.FountainSymbol;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * Decoder for {@link FountainPhosphrEncoder}. Never replies, and rebuilds the
+ * data from any large enough set of symbols by peeling: each symbol with one
+ * unknown block gives that block, which is then removed from the others.
+ */
+public class FountainPhosphrDecoder implements PhosphrDecoder {
+
+    private static final class Pending {
+
+        private final byte[] content;
+        private int unknown;
+        // XOR of the unknown block indexes, the last one left when unknown is 1
+        private int unknownXor;
+
+        Pending(byte[] content, List<Integer> unknown) {
+            this.content = content;
+            this.unknown = unknown.size();
+            for (int b : unknown) {
+                this.unknownXor ^= b;
+            }
+        }
+
+    }
+
+    private final SymbolTracker tracker = new SymbolTracker();
+    private long transferSize;
+    private int blockSize;
+    private LtCode code;
+    private byte[][] blocks;
+    private BitSet knownBlocks;
+    private BitSet seenSymbols;
+    // symbols waiting on each unknown block
+    private List<List<Pending>> waiting;
+    private transient byte[] cachedData;
+
+    @Override
+    public Optional<ByteMatrix> consumeImage(BinaryBitmap image) {
+        return readImage(image).getReply();
+    }
+
+    // nothing is answered, but copies of a read symbol needn't be read again
+    @Override
+    public ImageResult readImage(BinaryBitmap image) {
+        PhosphrMessage msg;
+        try {
+            msg = tracker.decode(image);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ReaderException) {
+                return ImageResult.unread();
+            }
+            throw e;
+        }
+        if (msg.hasFountainSymbol()) {
+            readSymbol(msg.getSequence(), msg.getFountainSymbol());
+        }
+        return ImageResult.read(Optional.empty());
+    }
+
+    // tested without the QR step
+    @VisibleForTesting
+    void readSymbol(int id, FountainSymbol symbol) {
+        if (code == null || symbol.getTransferSize() != transferSize
+                || symbol.getBlockCount() != code.getBlockCount()
+                || symbol.getBlockSize() != blockSize) {
+            // first symbol, or the sender moved on to a new transfer
+            startTransfer(symbol);
+        }
+        if (hasResult() || seenSymbols.get(id)) {
+            return;
+        }
+        seenSymbols.set(id);
+        if (symbol.getContent().size() != blockSize) {
+            throw new IllegalStateException("incorrect size of symbol, expected " + blockSize + " got " + symbol.getContent().size());
+        }
+        byte[] content = symbol.getContent().toByteArray();
+        List<Integer> unknown = new ArrayList<>();
+        for (int b : code.blocksFor(id)) {
+            if (knownBlocks.get(b)) {
+                LtCode.xorInto(content, blocks[b]);
+            } else {
+                unknown.add(b);
+            }
+        }
+        if (unknown.isEmpty()) {
+            return;
+        }
+        if (unknown.size() == 1) {
+            resolve(unknown.get(0), content);
+            return;
+        }
+        Pending pending = new Pending(content, unknown);
+        for (int b : unknown) {
+            waiting.get(b).add(pending);
+        }
+    }
+
+    private void startTransfer(FountainSymbol symbol) {
+        transferSize = symbol.getTransferSize();
+        blockSize = symbol.getBlockSize();
+        code = new LtCode(symbol.getBlockCount());
+        blocks = new byte[code.getBlockCount()][];
+        knownBlocks = new BitSet(code.getBlockCount());
+        seenSymbols = new BitSet();
+        waiting = new ArrayList<>(code.getBlockCount());
+        for (int i = 0; i < code.getBlockCount(); i++) {
+            waiting.add(new ArrayList<>());
+        }
+        cachedData = null;
+    }
+
+    private void resolve(int firstBlock, byte[] firstContent) {
+        Deque<Integer> ready = new ArrayDeque<>();
+        blocks[firstBlock] = firstContent;
+        ready.add(firstBlock);
+        while (!ready.isEmpty()) {
+            int b = ready.poll();
+            if (knownBlocks.get(b)) {
+                continue;
+            }
+            knownBlocks.set(b);
+            List<Pending> dependents = waiting.get(b);
+            waiting.set(b, null);
+            for (Pending p : dependents) {
+                if (p.unknown == 0) {
+                    // already used up to resolve another block
+                    continue;
+                }
+                LtCode.xorInto(p.content, blocks[b]);
+                p.unknown--;
+                p.unknownXor ^= b;
+                if (p.unknown == 1) {
+                    p.unknown = 0;
+                    int last = p.unknownXor;
+                    if (blocks[last] == null) {
+                        blocks[last] = p.content;
+                        ready.add(last);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean hasResult() {
+        return code != null && knownBlocks.cardinality() == code.getBlockCount();
+    }
+
+    @Override
+    public Optional<byte[]> getResult() {
+        if (!hasResult()) {
+            return Optional.empty();
+        }
+        if (cachedData == null) {
+            byte[] result = new byte[(int) transferSize];
+            for (int i = 0, pos = 0; pos < result.length; i++, pos += blockSize) {
+                System.arraycopy(blocks[i], 0, result, pos, Math.min(blockSize, result.length - pos));
+            }
+            cachedData = result;
+        }
+        return Optional.of(cachedData);
+    }
+
+}
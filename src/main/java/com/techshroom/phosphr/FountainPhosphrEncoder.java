@@ -0,0 +1,118 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.FountainSymbol;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * One-way encoder that shows an endless stream of fountain-coded symbols. No
+ * replies are needed, any receiver that sees enough symbols can rebuild the
+ * data, see {@link FountainPhosphrDecoder}.
+ */
+public class FountainPhosphrEncoder implements PhosphrEncoder {
+
+    /**
+     * Create an encoder that never completes. The caller decides when enough
+     * symbols have been shown.
+     */
+    public static FountainPhosphrEncoder fromBytes(byte[] data) {
+        return fromBytes(ByteBuffer.wrap(data), Integer.MAX_VALUE);
+    }
+
+    public static FountainPhosphrEncoder fromBytes(ByteBuffer data) {
+        return fromBytes(data, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create an encoder that completes after showing {@code symbolLimit}
+     * symbols. The remaining bytes of the buffer are not copied, and must not
+     * change until the encoder is done.
+     */
+    public static FountainPhosphrEncoder fromBytes(ByteBuffer data, int symbolLimit) {
+        checkArgument(symbolLimit > 0, "symbol limit must be positive, got %s", symbolLimit);
+        return new FountainPhosphrEncoder(data.slice(), symbolLimit);
+    }
+
+    // fits a version 40-L symbol with the marker and message overhead
+    private static final int BLOCK_SIZE = 2880;
+
+    private final ByteBuffer data;
+    private final int symbolLimit;
+    private final LtCode code;
+    private int nextSymbol;
+
+    private FountainPhosphrEncoder(ByteBuffer data, int symbolLimit) {
+        this.data = data;
+        this.symbolLimit = symbolLimit;
+        this.code = new LtCode(Math.max(1, (data.limit() + (BLOCK_SIZE - 1)) / BLOCK_SIZE));
+    }
+
+    @Override
+    public boolean isDataSendCompleted() {
+        return nextSymbol >= symbolLimit;
+    }
+
+    @Override
+    public ByteMatrix getNextImage(Iterator<BinaryBitmap> image) {
+        // nobody to listen to
+        int id = nextSymbol++;
+        byte[] content = new byte[BLOCK_SIZE];
+        byte[] block = new byte[BLOCK_SIZE];
+        for (int b : code.blocksFor(id)) {
+            readBlock(b, block);
+            LtCode.xorInto(content, block);
+        }
+        return MsgHelper.encode(PhosphrMessage.newBuilder()
+                .setSequence(id)
+                .setFountainSymbol(FountainSymbol.newBuilder()
+                        .setTransferSize(data.limit())
+                        .setBlockCount(code.getBlockCount())
+                        .setBlockSize(BLOCK_SIZE)
+                        // nothing else holds content
+                        .setContent(UnsafeByteOperations.unsafeWrap(content)))
+                .build(), PayloadFormat.BINARY);
+    }
+
+    private void readBlock(int index, byte[] block) {
+        data.position(index * BLOCK_SIZE);
+        int size = Math.min(BLOCK_SIZE, data.remaining());
+        data.get(block, 0, size);
+        // last block is zero padded
+        for (int i = size; i < block.length; i++) {
+            block[i] = 0;
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Draws symbols into pixel buffers, each module a square of pixels, with a
+ * light quiet zone around the symbol. Buffers are given by the caller and
+ * reused when they are big enough, so a display loop makes no garbage.
+ * 
+ * @see ByteMatrixLuminanceSource
+ */
+public final class FrameRenderer {
+
+    /**
+     * The QR minimum quiet zone, in modules.
+     */
+    public static final int DEFAULT_QUIET_ZONE = 4;
+
+    private static final byte LIGHT = (byte) 0xFF;
+    private static final byte DARK = 0;
+    private static final int WHITE = 0xFFFFFF;
+    private static final int BLACK = 0;
+    // RGB for each module value of a mergePlanes frame, a channel is off
+    // where its plane is dark
+    private static final int[] PLANE_COLORS = new int[1 << MsgHelper.PLANES];
+    static {
+        for (int i = 0; i < PLANE_COLORS.length; i++) {
+            PLANE_COLORS[i] = ((i & 1) == 0 ? 0xFF0000 : 0)
+                    | ((i & 2) == 0 ? 0xFF00 : 0)
+                    | ((i & 4) == 0 ? 0xFF : 0);
+        }
+    }
+
+    private final int scale;
+    private final int quietZone;
+
+    public FrameRenderer(int scale) {
+        this(scale, DEFAULT_QUIET_ZONE);
+    }
+
+    /**
+     * @param scale
+     *            - the width of a module, in pixels
+     * @param quietZone
+     *            - the width of the quiet zone, in modules
+     */
+    public FrameRenderer(int scale, int quietZone) {
+        checkArgument(scale >= 1, "scale must be at least 1, got %s", scale);
+        checkArgument(quietZone >= 0, "quiet zone must not be negative, got %s", quietZone);
+        this.scale = scale;
+        this.quietZone = quietZone;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getQuietZone() {
+        return quietZone;
+    }
+
+    public int getWidth(ByteMatrix symbol) {
+        return (symbol.getWidth() + quietZone * 2) * scale;
+    }
+
+    public int getHeight(ByteMatrix symbol) {
+        return (symbol.getHeight() + quietZone * 2) * scale;
+    }
+
+    /**
+     * Draw a symbol as luminance, one byte per pixel, row by row.
+     * 
+     * @param luminance
+     *            - the buffer to draw into, may be {@code null} or too small
+     * @return the buffer drawn into, a new one if {@code luminance} could not
+     *         be used
+     */
+    public byte[] render(ByteMatrix symbol, byte[] luminance) {
+        int width = getWidth(symbol);
+        int height = getHeight(symbol);
+        if (luminance == null || luminance.length < width * height) {
+            luminance = new byte[width * height];
+        }
+        render(symbol, luminance, 0);
+        return luminance;
+    }
+
+    /**
+     * Draw a symbol in black and white as packed RGB, as for
+     * {@code BufferedImage.setRGB}.
+     * 
+     * @param pixels
+     *            - the buffer to draw into, may be {@code null} or too small
+     * @return the buffer drawn into, a new one if {@code pixels} could not be
+     *         used
+     */
+    public int[] render(ByteMatrix symbol, int[] pixels) {
+        return render(symbol, pixels, false);
+    }
+
+    /**
+     * Draw a frame made by {@link MsgHelper#mergePlanes(java.util.List)} as
+     * packed RGB, each plane in its own channel.
+     * 
+     * @see ChannelLuminanceSource
+     */
+    public int[] renderPlanes(ByteMatrix frame, int[] pixels) {
+        return render(frame, pixels, true);
+    }
+
+    private int[] render(ByteMatrix symbol, int[] pixels, boolean planes) {
+        int width = getWidth(symbol);
+        int height = getHeight(symbol);
+        if (pixels == null || pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        int border = quietZone * scale;
+        Arrays.fill(pixels, 0, border * width, WHITE);
+        byte[][] rows = symbol.getArray();
+        for (int my = 0; my < rows.length; my++) {
+            int start = (border + my * scale) * width;
+            Arrays.fill(pixels, start, start + border, WHITE);
+            int x = start + border;
+            for (byte module : rows[my]) {
+                int color = planes ? PLANE_COLORS[module & (PLANE_COLORS.length - 1)] : module == 0 ? WHITE : BLACK;
+                Arrays.fill(pixels, x, x + scale, color);
+                x += scale;
+            }
+            Arrays.fill(pixels, x, start + width, WHITE);
+            for (int i = 1; i < scale; i++) {
+                System.arraycopy(pixels, start, pixels, start + i * width, width);
+            }
+        }
+        Arrays.fill(pixels, (height - border) * width, height * width, WHITE);
+        return pixels;
+    }
+
+    /**
+     * Draw a symbol as luminance, one byte per pixel, row by row, from the
+     * buffer's position. The position is not changed, so the buffer can be a
+     * direct one shared with a display.
+     * 
+     * @throws IllegalArgumentException
+     *             if the buffer has too little room
+     */
+    public void render(ByteMatrix symbol, ByteBuffer luminance) {
+        int width = getWidth(symbol);
+        int height = getHeight(symbol);
+        checkArgument(luminance.remaining() >= width * height, "need room for %s pixels, have %s",
+                width * height, luminance.remaining());
+        if (luminance.hasArray()) {
+            render(symbol, luminance.array(), luminance.arrayOffset() + luminance.position());
+            return;
+        }
+        int base = luminance.position();
+        for (int y = 0; y < height; y++) {
+            int my = y / scale - quietZone;
+            for (int x = 0; x < width; x++) {
+                int mx = x / scale - quietZone;
+                boolean dark = my >= 0 && my < symbol.getHeight() && mx >= 0 && mx < symbol.getWidth()
+                        && symbol.get(mx, my) != 0;
+                luminance.put(base + y * width + x, dark ? DARK : LIGHT);
+            }
+        }
+    }
+
+    // as render(ByteMatrix, byte[]), into part of a larger array
+    private void render(ByteMatrix symbol, byte[] luminance, int offset) {
+        int width = getWidth(symbol);
+        int height = getHeight(symbol);
+        int border = quietZone * scale;
+        Arrays.fill(luminance, offset, offset + border * width, LIGHT);
+        byte[][] rows = symbol.getArray();
+        for (int my = 0; my < rows.length; my++) {
+            int start = offset + (border + my * scale) * width;
+            Arrays.fill(luminance, start, start + border, LIGHT);
+            int x = start + border;
+            for (byte module : rows[my]) {
+                Arrays.fill(luminance, x, x + scale, module == 0 ? LIGHT : DARK);
+                x += scale;
+            }
+            Arrays.fill(luminance, x, start + width, LIGHT);
+            copyRow(luminance, start, width);
+        }
+        Arrays.fill(luminance, offset + (height - border) * width, offset + height * width, LIGHT);
+    }
+
+    // repeat a module row's first pixel row for the rest of the module
+    private void copyRow(byte[] pixels, int start, int width) {
+        for (int i = 1; i < scale; i++) {
+            System.arraycopy(pixels, start, pixels, start + i * width, width);
+        }
+    }
+
+}
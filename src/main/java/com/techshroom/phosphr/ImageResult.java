@@ -0,0 +1,72 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.Optional;
+
+import com.google.auto.value.AutoValue;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * What a decoder made of a captured image, see
+ * {@link PhosphrDecoder#readImage(com.google.zxing.BinaryBitmap)}.
+ */
+@AutoValue
+public abstract class ImageResult {
+
+    private static final ImageResult UNREAD = new AutoValue_ImageResult(false, Optional.empty());
+
+    /**
+     * No symbol could be read from the image.
+     */
+    public static ImageResult unread() {
+        return UNREAD;
+    }
+
+    /**
+     * A symbol was read from the image.
+     * 
+     * @param reply
+     *            - the image to send back, if any
+     */
+    public static ImageResult read(Optional<ByteMatrix> reply) {
+        return new AutoValue_ImageResult(true, reply);
+    }
+
+    ImageResult() {
+    }
+
+    /**
+     * If a symbol was read from the image. Copies of a read image are no use
+     * to the decoder, even if it didn't answer it.
+     */
+    public abstract boolean isRead();
+
+    /**
+     * The image to send back, if any.
+     */
+    public abstract Optional<ByteMatrix> getReply();
+
+}
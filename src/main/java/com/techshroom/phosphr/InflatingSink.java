@@ -0,0 +1,123 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates deflated data as it arrives in order, and writes it to another
+ * sink.
+ */
+final class InflatingSink implements DecoderSink {
+
+    private final DecoderSink target;
+    private final long size;
+    private final Inflater inflater = new Inflater();
+    private final byte[] out = new byte[1 << 16];
+    private final DecoderSink inOrder = DecoderSinks.streaming(new WritableByteChannel() {
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            byte[] in = new byte[length];
+            src.get(in);
+            inflate(in);
+            return length;
+        }
+    });
+    // only touched by inOrder, which is synchronized
+    private long written;
+
+    /**
+     * @param size
+     *            - the size of the data after inflating
+     */
+    InflatingSink(DecoderSink target, long size) {
+        this.target = target;
+        this.size = size;
+    }
+
+    private void inflate(byte[] in) throws IOException {
+        inflater.setInput(in);
+        try {
+            for (int n = inflater.inflate(out); n > 0; n = inflater.inflate(out)) {
+                if (written + n > size) {
+                    throw new IOException("inflated data is larger than " + size + " bytes");
+                }
+                target.write(written, ByteBuffer.wrap(out, 0, n));
+                written += n;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("bad deflate data", e);
+        }
+        if (inflater.needsDictionary()) {
+            throw new IOException("deflate data needs a dictionary");
+        }
+    }
+
+    @Override
+    public void start(long capacity) throws IOException {
+        inOrder.start(capacity);
+        target.start(size);
+    }
+
+    @Override
+    public void write(long offset, ByteBuffer content) throws IOException {
+        inOrder.write(offset, content);
+    }
+
+    @Override
+    public void finish(long length) throws IOException {
+        inOrder.finish(length);
+        try {
+            if (!inflater.finished() || written != size) {
+                throw new IOException("deflate data ended after " + written + " of " + size + " bytes");
+            }
+        } finally {
+            inflater.end();
+        }
+        target.finish(size);
+    }
+
+    @Override
+    public Optional<byte[]> getResult() {
+        return target.getResult();
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Systematic LT code. Symbols below the block count are the source blocks
+ * themselves, later symbols XOR together blocks picked from the robust
+ * soliton distribution. Both sides derive the blocks from the symbol id alone.
+ */
+final class LtCode {
+
+    private static final double C = 0.1;
+    private static final double DELTA = 0.05;
+
+    private final int blockCount;
+    // cumulative degree distribution, index is degree - 1
+    private final double[] degreeCdf;
+
+    LtCode(int blockCount) {
+        this.blockCount = blockCount;
+        this.degreeCdf = robustSoliton(blockCount);
+    }
+
+    private static double[] robustSoliton(int k) {
+        double[] weights = new double[k];
+        double r = C * Math.log(k / DELTA) * Math.sqrt(k);
+        int spike = Math.max(1, Math.min(k, (int) Math.round(k / r)));
+        double total = 0;
+        for (int d = 1; d <= k; d++) {
+            double rho = d == 1 ? 1.0 / k : 1.0 / ((double) d * (d - 1));
+            double tau = 0;
+            if (d < spike) {
+                tau = r / ((double) d * k);
+            } else if (d == spike) {
+                tau = r * Math.log(r / DELTA) / k;
+            }
+            weights[d - 1] = rho + Math.max(0, tau);
+            total += weights[d - 1];
+        }
+        double sum = 0;
+        for (int i = 0; i < k; i++) {
+            sum += weights[i] / total;
+            weights[i] = sum;
+        }
+        weights[k - 1] = 1;
+        return weights;
+    }
+
+    int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * The source blocks combined in the given symbol.
+     */
+    int[] blocksFor(int symbolId) {
+        if (symbolId >= 0 && symbolId < blockCount) {
+            return new int[] { symbolId };
+        }
+        // java.util.Random's algorithm is specified, so this is the same on
+        // every JVM
+        Random random = new Random(mix(symbolId & 0xFFFFFFFFL));
+        int degree = degree(random.nextDouble());
+        BitSet picked = new BitSet(blockCount);
+        int[] blocks = new int[degree];
+        for (int i = 0; i < degree;) {
+            int block = random.nextInt(blockCount);
+            if (!picked.get(block)) {
+                picked.set(block);
+                blocks[i++] = block;
+            }
+        }
+        return blocks;
+    }
+
+    // nearby seeds give java.util.Random nearly the same first values, which
+    // would give consecutive symbols the same few degrees
+    private static long mix(long seed) {
+        long z = seed * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int degree(double sample) {
+        int low = 0;
+        int high = degreeCdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (degreeCdf[mid] < sample) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low + 1;
+    }
+
+    static void xorInto(byte[] target, byte[] source) {
+        for (int i = 0; i < target.length; i++) {
+            target[i] ^= source[i];
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Counts events as named meters. Names follow the dotted Micrometer style,
+ * with failures tagged by cause, so a registry can poll {@link #snapshot()}
+ * with function counters and gauges.
+ */
+public class MetricsListener implements PhosphrListener {
+
+    private final LongAdder framesDecoded = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final LongAdder framesSkipped = new LongAdder();
+    private final LongAdder packetsReceived = new LongAdder();
+    private final LongAdder duplicatePackets = new LongAdder();
+    private final LongAdder dataShown = new LongAdder();
+    private final LongAdder retransmissions = new LongAdder();
+    private final LongAdder layoutChanges = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private volatile int inFlight;
+    private volatile double goodput;
+
+    @Override
+    public void frameDecoded(int symbols, long nanos) {
+        framesDecoded.increment();
+        decodeNanos.add(nanos);
+    }
+
+    @Override
+    public void frameFailed(Throwable cause, long nanos) {
+        failures.computeIfAbsent(cause.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    @Override
+    public void frameSkipped() {
+        framesSkipped.increment();
+    }
+
+    @Override
+    public void dataReceived(int first, int count, int duplicates) {
+        packetsReceived.add(count - duplicates);
+        duplicatePackets.add(duplicates);
+    }
+
+    @Override
+    public void dataShown(int first, int count, boolean retransmission) {
+        dataShown.increment();
+        if (retransmission) {
+            retransmissions.increment();
+        }
+    }
+
+    @Override
+    public void windowChanged(int inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    @Override
+    public void layoutChanged(ErrorCorrectionLevel ecLevel, int packets) {
+        layoutChanges.increment();
+    }
+
+    @Override
+    public void transferCompleted(long bytes, long nanos) {
+        transfers.increment();
+        goodput = nanos == 0 ? 0 : (double) bytes * TimeUnit.SECONDS.toNanos(1) / nanos;
+    }
+
+    /**
+     * The current value of every meter, by name.
+     */
+    public ImmutableMap<String, Number> snapshot() {
+        ImmutableMap.Builder<String, Number> meters = ImmutableMap.<String, Number> builder()
+                .put("phosphr.decode.frames", framesDecoded.sum())
+                .put("phosphr.decode.seconds", decodeNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1))
+                .put("phosphr.decode.frames.skipped", framesSkipped.sum())
+                .put("phosphr.decode.packets", packetsReceived.sum())
+                .put("phosphr.decode.packets.duplicate", duplicatePackets.sum())
+                .put("phosphr.encode.data", dataShown.sum())
+                .put("phosphr.encode.data.retransmitted", retransmissions.sum())
+                .put("phosphr.encode.layout.changes", layoutChanges.sum())
+                .put("phosphr.encode.inflight", inFlight)
+                .put("phosphr.transfers", transfers.sum())
+                .put("phosphr.transfer.goodput", goodput);
+        failures.forEach((cause, count) -> meters.put("phosphr.decode.failures{cause=" + cause + "}", count.sum()));
+        return meters.build();
+    }
+
+}
@@ -24,50 +24,251 @@
  */
 package com.techshroom.phosphr;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
-import com.google.zxing.WriterException;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.common.DecoderResult;
+import com.google.zxing.multi.qrcode.QRCodeMultiReader;
 import com.google.zxing.qrcode.QRCodeReader;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import com.google.zxing.qrcode.encoder.ByteMatrix;
-import com.google.zxing.qrcode.encoder.Encoder;
+import com.techshroom.protos.PayloadFormat;
 import com.techshroom.protos.PhosphrMessage;
 
 public final class MsgHelper {
 
+    /**
+     * Leading byte of {@link PayloadFormat#BINARY} symbols. It is not in the
+     * Base64 alphabet, so each symbol says which format it is in.
+     */
+    private static final byte BINARY_MARKER = 0;
+    // modules between tiled symbols, the QR minimum
+    private static final int QUIET_ZONE = 4;
+    /**
+     * The most planes {@link #mergePlanes(List)} takes: red, green and blue.
+     */
+    public static final int PLANES = 3;
+
+    // ISO-8859-1 maps every byte to one char, and is the QR byte mode default
+    // so no ECI segment is added
+    static final Map<EncodeHintType, Object> ENCODE_HINTS = ImmutableMap.of(
+            EncodeHintType.CHARACTER_SET, StandardCharsets.ISO_8859_1.name());
+    static final Map<DecodeHintType, Object> DECODE_HINTS = ImmutableMap.of(
+            DecodeHintType.CHARACTER_SET, StandardCharsets.ISO_8859_1.name());
+
     public static ByteMatrix encode(PhosphrMessage pm) {
-        byte[] data = pm.toByteArray();
-        String strData = Base64.getEncoder().encodeToString(data);
+        return encode(pm, PayloadFormat.BASE64);
+    }
+
+    public static ByteMatrix encode(PhosphrMessage pm, PayloadFormat format) {
+        return encode(pm, format, ErrorCorrectionLevel.L);
+    }
+
+    public static ByteMatrix encode(PhosphrMessage pm, PayloadFormat format, ErrorCorrectionLevel ecLevel) {
+        return encode(pm, format, ecLevel, SymbolCodecs.qrCode());
+    }
+
+    public static ByteMatrix encode(PhosphrMessage pm, PayloadFormat format, ErrorCorrectionLevel ecLevel,
+            SymbolCodec codec) {
+        switch (format) {
+            case BASE64:
+                return codec.encode(Base64.getEncoder().encode(pm.toByteArray()), ecLevel);
+            case BINARY:
+                byte[] data = new byte[1 + pm.getSerializedSize()];
+                data[0] = BINARY_MARKER;
+                CodedOutputStream out = CodedOutputStream.newInstance(data, 1, data.length - 1);
+                try {
+                    pm.writeTo(out);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                out.checkNoSpaceLeft();
+                return codec.encode(data, ecLevel);
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+    }
+
+    /**
+     * Tile symbols into one frame, in rows, each with its own quiet zone.
+     */
+    public static ByteMatrix tile(List<ByteMatrix> symbols) {
+        checkArgument(!symbols.isEmpty(), "no symbols to tile");
+        if (symbols.size() == 1) {
+            return symbols.get(0);
+        }
+        int columns = (int) Math.ceil(Math.sqrt(symbols.size()));
+        int rows = (symbols.size() + columns - 1) / columns;
+        int cell = 0;
+        for (ByteMatrix symbol : symbols) {
+            cell = Math.max(cell, Math.max(symbol.getWidth(), symbol.getHeight()));
+        }
+        cell += QUIET_ZONE;
+        ByteMatrix frame = new ByteMatrix(columns * cell - QUIET_ZONE, rows * cell - QUIET_ZONE);
+        frame.clear((byte) 0);
+        for (int i = 0; i < symbols.size(); i++) {
+            ByteMatrix symbol = symbols.get(i);
+            int left = (i % columns) * cell;
+            int top = (i / columns) * cell;
+            for (int y = 0; y < symbol.getHeight(); y++) {
+                for (int x = 0; x < symbol.getWidth(); x++) {
+                    frame.set(left + x, top + y, symbol.get(x, y));
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Merge symbols into the color planes of one frame. Bit {@code i} of a
+     * module is set where plane {@code i} (red, green, blue) is dark, so it
+     * is shown with those channels off and the others on. Planes are aligned
+     * at the top left, and missing ones are blank.
+     * 
+     * @see ChannelLuminanceSource
+     */
+    public static ByteMatrix mergePlanes(List<ByteMatrix> planes) {
+        checkArgument(!planes.isEmpty() && planes.size() <= PLANES, "need 1 to %s planes, got %s", PLANES, planes.size());
+        int width = 0;
+        int height = 0;
+        for (ByteMatrix plane : planes) {
+            width = Math.max(width, plane.getWidth());
+            height = Math.max(height, plane.getHeight());
+        }
+        ByteMatrix frame = new ByteMatrix(width, height);
+        frame.clear((byte) 0);
+        byte[][] out = frame.getArray();
+        for (int i = 0; i < planes.size(); i++) {
+            byte[][] in = planes.get(i).getArray();
+            for (int y = 0; y < in.length; y++) {
+                for (int x = 0; x < in[y].length; x++) {
+                    if (in[y][x] == 1) {
+                        out[y][x] |= 1 << i;
+                    }
+                }
+            }
+        }
+        return frame;
+    }
+
+    public static PhosphrMessage decode(BinaryBitmap mat) {
+        return decode(mat, SymbolCodecs.qrCode());
+    }
+
+    public static PhosphrMessage decode(BinaryBitmap mat, SymbolCodec codec) {
+        byte[] raw;
         try {
-            return Encoder.encode(strData, ErrorCorrectionLevel.L).getMatrix();
-        } catch (WriterException e) {
+            raw = codec.decode(mat);
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
             throw new RuntimeException(e);
         }
+        return parse(raw);
     }
 
-    public static PhosphrMessage decode(BinaryBitmap mat) {
-        Result result;
+    /**
+     * Read the one QR code in an image. The finder pattern search can take a
+     * run of data modules in a large symbol for a finder pattern, and then
+     * fails the same way on every copy of the frame. When it fails, the search
+     * that tries each set of three candidates is used instead.
+     */
+    static Result readQrCode(BinaryBitmap mat) throws ReaderException {
         try {
-            result = new QRCodeReader().decode(mat);
+            return new QRCodeReader().decode(mat, DECODE_HINTS);
+        } catch (ReaderException e) {
+            Result[] results;
+            try {
+                results = new QRCodeMultiReader().decodeMultiple(mat, DECODE_HINTS);
+            } catch (NotFoundException again) {
+                throw e;
+            }
+            // found finder patterns, but none that decoded
+            if (results.length == 0) {
+                throw e;
+            }
+            return results[0];
+        }
+    }
+
+    /**
+     * Decode every symbol in a frame made by {@link #tile(List)}.
+     */
+    public static List<PhosphrMessage> decodeAll(BinaryBitmap mat) {
+        Result[] results;
+        try {
+            results = new QRCodeMultiReader().decodeMultiple(mat, DECODE_HINTS);
         } catch (Exception e) {
             Throwables.throwIfUnchecked(e);
             throw new RuntimeException(e);
         }
-        String strData = result.getText();
-        byte[] data = Base64.getDecoder().decode(strData);
+        List<PhosphrMessage> messages = new ArrayList<>(results.length);
+        for (Result result : results) {
+            messages.add(parse(result));
+        }
+        return messages;
+    }
+
+    static PhosphrMessage parse(Result result) {
+        return parse(rawBytes(result));
+    }
+
+    /**
+     * Parse a QR code read without a {@link QRCodeReader}, see
+     * {@link SymbolTracker}.
+     */
+    static PhosphrMessage parse(DecoderResult result) {
+        List<byte[]> segments = result.getByteSegments();
+        if (segments != null && segments.size() == 1) {
+            return parse(segments.get(0));
+        }
+        return parse(result.getText().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static PhosphrMessage parse(byte[] raw) {
         PhosphrMessage msg;
         try {
-            msg = PhosphrMessage.parseFrom(data);
+            if (raw.length > 0 && raw[0] == BINARY_MARKER) {
+                msg = PhosphrMessage.parseFrom(ByteBuffer.wrap(raw, 1, raw.length - 1));
+            } else {
+                msg = PhosphrMessage.parseFrom(Base64.getDecoder().decode(raw));
+            }
         } catch (InvalidProtocolBufferException e) {
             throw new RuntimeException(e);
         }
         return msg;
     }
 
+    static byte[] rawBytes(Result result) {
+        // a lone byte mode segment holds the exact bytes, no need to re-encode
+        Map<ResultMetadataType, Object> meta = result.getResultMetadata();
+        if (meta != null) {
+            @SuppressWarnings("unchecked")
+            List<byte[]> segments = (List<byte[]>) meta.get(ResultMetadataType.BYTE_SEGMENTS);
+            if (segments != null && segments.size() == 1) {
+                return segments.get(0);
+            }
+        }
+        return result.getText().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
     private MsgHelper() {
     }
 }
@@ -0,0 +1,109 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.techshroom.protos.PayloadFormat;
+
+/**
+ * How many packets go into one Data message, and at what error correction
+ * level. Smaller layouts give smaller symbols with larger modules.
+ */
+final class PacketLayout {
+
+    private static final ErrorCorrectionLevel[] LEVELS = {
+            ErrorCorrectionLevel.L, ErrorCorrectionLevel.M, ErrorCorrectionLevel.Q, ErrorCorrectionLevel.H
+    };
+    // room for the marker, sequence and message framing
+    private static final int MESSAGE_OVERHEAD = 32;
+
+    /**
+     * The largest packet that fits one to a symbol.
+     */
+    static int maxPacketSize(PayloadFormat format, SymbolCodec codec) {
+        return room(format, codec, ErrorCorrectionLevel.L) - MESSAGE_OVERHEAD;
+    }
+
+    // the bytes of message a symbol holds
+    private static int room(PayloadFormat format, SymbolCodec codec, ErrorCorrectionLevel ecLevel) {
+        int capacity = codec.getCapacity(ecLevel);
+        return format == PayloadFormat.BINARY ? capacity - 1 : capacity * 3 / 4;
+    }
+
+    /**
+     * Layouts from the most packets per symbol to the most robust, for
+     * packets of {@code packetSize} bytes.
+     */
+    static List<PacketLayout> ladder(PayloadFormat format, int packetSize, SymbolCodec codec) {
+        List<PacketLayout> ladder = new ArrayList<>();
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (i > 0 && codec.getCapacity(LEVELS[i]) == codec.getCapacity(LEVELS[i - 1])) {
+                // the level makes no difference to this symbology
+                continue;
+            }
+            int room = room(format, codec, LEVELS[i]);
+            int packets = Math.max(1, (room - MESSAGE_OVERHEAD) / packetSize);
+            addIfNew(ladder, new PacketLayout(LEVELS[i], packets));
+        }
+        // then shrink the symbol itself
+        for (int packets = ladder.get(ladder.size() - 1).packets / 2; packets >= 1; packets /= 2) {
+            addIfNew(ladder, new PacketLayout(ErrorCorrectionLevel.H, packets));
+        }
+        return ImmutableList.copyOf(ladder);
+    }
+
+    private static void addIfNew(List<PacketLayout> ladder, PacketLayout layout) {
+        if (ladder.isEmpty() || ladder.get(ladder.size() - 1).packets != layout.packets
+                || ladder.get(ladder.size() - 1).ecLevel != layout.ecLevel) {
+            ladder.add(layout);
+        }
+    }
+
+    private final ErrorCorrectionLevel ecLevel;
+    private final int packets;
+
+    PacketLayout(ErrorCorrectionLevel ecLevel, int packets) {
+        this.ecLevel = ecLevel;
+        this.packets = packets;
+    }
+
+    ErrorCorrectionLevel getEcLevel() {
+        return ecLevel;
+    }
+
+    int getPackets() {
+        return packets;
+    }
+
+    @Override
+    public String toString() {
+        return packets + " packets at " + ecLevel;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.Deflater;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+/**
+ * The data an encoder sends, read a packet at a time. Reads may come from
+ * more than one thread.
+ */
+interface PacketSource {
+
+    /**
+     * Wraps the buffer without copying it.
+     */
+    static PacketSource of(ByteBuffer data) {
+        ByteBuffer own = data.slice();
+        return new PacketSource() {
+
+            @Override
+            public long size() {
+                return own.limit();
+            }
+
+            @Override
+            public ByteString read(long offset, int length) {
+                ByteBuffer slice = own.duplicate();
+                slice.position((int) offset);
+                slice.limit((int) offset + length);
+                // never written to, so sharing it is safe
+                return UnsafeByteOperations.unsafeWrap(slice.slice());
+            }
+        };
+    }
+
+    /**
+     * Reads from the channel as packets are needed.
+     */
+    static PacketSource of(SeekableByteChannel channel) throws IOException {
+        long size = channel.size();
+        return new PacketSource() {
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public ByteString read(long offset, int length) {
+                byte[] packet = new byte[length];
+                ByteBuffer target = ByteBuffer.wrap(packet);
+                try {
+                    synchronized (channel) {
+                        channel.position(offset);
+                        while (target.hasRemaining()) {
+                            if (channel.read(target) < 0) {
+                                throw new EOFException("channel ended at " + (offset + target.position())
+                                        + ", expected " + size + " bytes");
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return UnsafeByteOperations.unsafeWrap(packet);
+            }
+        };
+    }
+
+    /**
+     * Deflate the source, or give up if it doesn't save at least a twentieth
+     * of the size.
+     */
+    static Optional<PacketSource> deflate(PacketSource source, int level) {
+        long limit = source.size() - source.size() / 20;
+        if (limit > Integer.MAX_VALUE) {
+            return Optional.empty();
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            byte[] out = new byte[(int) Math.min(limit, 1 << 16)];
+            int outSize = 0;
+            long offset = 0;
+            while (!deflater.finished()) {
+                if (deflater.needsInput()) {
+                    int length = (int) Math.min(1 << 16, source.size() - offset);
+                    deflater.setInput(source.read(offset, length).toByteArray());
+                    offset += length;
+                    if (offset == source.size()) {
+                        deflater.finish();
+                    }
+                }
+                if (outSize == out.length) {
+                    if (outSize >= limit) {
+                        // doesn't pay off
+                        return Optional.empty();
+                    }
+                    out = Arrays.copyOf(out, (int) Math.min(limit, (long) outSize * 2));
+                }
+                outSize += deflater.deflate(out, outSize, out.length - outSize);
+            }
+            return Optional.of(of(ByteBuffer.wrap(out, 0, outSize)));
+        } finally {
+            deflater.end();
+        }
+    }
+
+    long size();
+
+    ByteString read(long offset, int length);
+
+}
@@ -0,0 +1,150 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Optional;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Decodes captured frames on a pool of worker threads. Frames wait in a
+ * bounded queue, and when the workers fall behind the oldest waiting frame is
+ * dropped, since newer frames are more useful to the sender. The result is
+ * also given to {@link #getCompletion()} as soon as a worker finishes it.
+ */
+public class ParallelFrameDecoder implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelFrameDecoder.class);
+
+    private final PhosphrDecoder decoder;
+    private final Consumer<ByteMatrix> replies;
+    private final BlockingDeque<BinaryBitmap> queue;
+    private final ExecutorService workers;
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final CompletableFuture<byte[]> completion = new CompletableFuture<>();
+
+    /**
+     * Create and start a decoder front end.
+     * 
+     * @param decoder
+     *            - the decoder, must be safe to call from several threads,
+     *            like {@link StandardPhosphrDecoder}
+     * @param threads
+     *            - the number of worker threads
+     * @param queueSize
+     *            - the number of frames that may wait for a worker
+     * @param replies
+     *            - receives images to send back, called from the workers
+     */
+    public ParallelFrameDecoder(PhosphrDecoder decoder, int threads, int queueSize, Consumer<ByteMatrix> replies) {
+        checkArgument(threads >= 1, "need at least one thread, got %s", threads);
+        checkArgument(queueSize >= 1, "need room for at least one frame, got %s", queueSize);
+        this.decoder = decoder;
+        this.replies = replies;
+        this.queue = new LinkedBlockingDeque<>(queueSize);
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("phosphr-decoder-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < threads; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Queue a captured frame. Never blocks.
+     */
+    public void submit(BinaryBitmap image) {
+        while (!queue.offerLast(image)) {
+            if (queue.pollFirst() != null) {
+                droppedFrames.incrementAndGet();
+            }
+        }
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    public Optional<byte[]> getResult() {
+        return decoder.getResult();
+    }
+
+    /**
+     * Completes with the result when the transfer is done, from a worker
+     * thread. Cancelled if closed before then.
+     */
+    public CompletableFuture<byte[]> getCompletion() {
+        return completion;
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            BinaryBitmap image;
+            try {
+                image = queue.takeFirst();
+            } catch (InterruptedException e) {
+                // closed
+                return;
+            }
+            try {
+                decoder.consumeImage(image).ifPresent(replies);
+                if (!completion.isDone()) {
+                    decoder.getResult().ifPresent(completion::complete);
+                }
+            } catch (RuntimeException e) {
+                // one bad frame shouldn't stop the worker
+                LOGGER.warn("Failed to process frame", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        completion.cancel(false);
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -43,6 +43,39 @@ public interface PhosphrDecoder {
      */
     Optional<ByteMatrix> consumeImage(BinaryBitmap image);
 
+    /**
+     * Consume the next captured image in the stream, as
+     * {@link #consumeImage(BinaryBitmap)}, and also say if it was read. An
+     * image may be read and not answered, such as Data whose acknowledgement
+     * an {@link AckPolicy} holds back. By default only an answered image
+     * counts as read.
+     * 
+     * @param image
+     *            - the captured image
+     * @return if the image was read, and the image to send back, if any
+     */
+    default ImageResult readImage(BinaryBitmap image) {
+        Optional<ByteMatrix> reply = consumeImage(image);
+        return reply.isPresent() ? ImageResult.read(reply) : ImageResult.unread();
+    }
+
+    /**
+     * Consume a captured color frame, split into its planes, see
+     * {@link ChannelLuminanceSource}. Each plane is read on its own.
+     * 
+     * @return the last image to send back, if any
+     */
+    default Optional<ByteMatrix> consumePlanes(BinaryBitmap red, BinaryBitmap green, BinaryBitmap blue) {
+        Optional<ByteMatrix> reply = Optional.empty();
+        for (BinaryBitmap plane : new BinaryBitmap[] { red, green, blue }) {
+            Optional<ByteMatrix> next = consumeImage(plane);
+            if (next.isPresent()) {
+                reply = next;
+            }
+        }
+        return reply;
+    }
+
     /**
      * When the data is fully loaded, the result will become available here.
      * 
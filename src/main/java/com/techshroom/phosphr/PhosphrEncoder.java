@@ -49,4 +49,15 @@ public interface PhosphrEncoder {
      */
     ByteMatrix getNextImage(Iterator<BinaryBitmap> image);
 
+    /**
+     * How long to show the image from the last call to
+     * {@link #getNextImage(Iterator)}.
+     * 
+     * @return the time in nanoseconds, or {@code 0} if the caller's frame rate
+     *         should be used
+     */
+    default long getFrameNanos() {
+        return 0;
+    }
+
 }
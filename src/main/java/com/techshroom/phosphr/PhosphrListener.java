@@ -0,0 +1,172 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Hears what the encoders and decoders do, for logging and metrics. Every
+ * method does nothing by default. Decoder methods may be called from several
+ * threads at once.
+ * 
+ * <p>
+ * Timings are only taken when the listener is not {@link #NONE}.
+ * </p>
+ * 
+ * @see Slf4jListener
+ * @see MetricsListener
+ */
+public interface PhosphrListener {
+
+    /**
+     * Hears nothing, the default.
+     */
+    PhosphrListener NONE = new PhosphrListener() {
+    };
+
+    /**
+     * Pass everything to each of the listeners.
+     */
+    static PhosphrListener compose(PhosphrListener... listeners) {
+        ImmutableList<PhosphrListener> all = ImmutableList.copyOf(listeners);
+        return new PhosphrListener() {
+
+            @Override
+            public void frameDecoded(int symbols, long nanos) {
+                all.forEach(l -> l.frameDecoded(symbols, nanos));
+            }
+
+            @Override
+            public void frameFailed(Throwable cause, long nanos) {
+                all.forEach(l -> l.frameFailed(cause, nanos));
+            }
+
+            @Override
+            public void frameSkipped() {
+                all.forEach(PhosphrListener::frameSkipped);
+            }
+
+            @Override
+            public void dataReceived(int first, int count, int duplicates) {
+                all.forEach(l -> l.dataReceived(first, count, duplicates));
+            }
+
+            @Override
+            public void dataShown(int first, int count, boolean retransmission) {
+                all.forEach(l -> l.dataShown(first, count, retransmission));
+            }
+
+            @Override
+            public void windowChanged(int inFlight) {
+                all.forEach(l -> l.windowChanged(inFlight));
+            }
+
+            @Override
+            public void layoutChanged(ErrorCorrectionLevel ecLevel, int packets) {
+                all.forEach(l -> l.layoutChanged(ecLevel, packets));
+            }
+
+            @Override
+            public void transferCompleted(long bytes, long nanos) {
+                all.forEach(l -> l.transferCompleted(bytes, nanos));
+            }
+        };
+    }
+
+    /**
+     * A decoder read a frame.
+     * 
+     * @param symbols
+     *            - the number of symbols in it
+     * @param nanos
+     *            - the time taken to decode and process it
+     */
+    default void frameDecoded(int symbols, long nanos) {
+    }
+
+    /**
+     * A decoder could not read a frame. The cause is usually a
+     * {@link com.google.zxing.ReaderException}, which isn't an error.
+     */
+    default void frameFailed(Throwable cause, long nanos) {
+    }
+
+    /**
+     * A frame was not decoded because it was the same as the last one.
+     * 
+     * @see DuplicateFrameFilter
+     */
+    default void frameSkipped() {
+    }
+
+    /**
+     * A decoder got a Data symbol.
+     * 
+     * @param first
+     *            - the first packet in it
+     * @param count
+     *            - the number of packets in it
+     * @param duplicates
+     *            - the number of those the decoder already had
+     */
+    default void dataReceived(int first, int count, int duplicates) {
+    }
+
+    /**
+     * An encoder showed a Data symbol.
+     * 
+     * @param retransmission
+     *            - {@code true} if some of the packets were shown before
+     */
+    default void dataShown(int first, int count, boolean retransmission) {
+    }
+
+    /**
+     * The number of Data symbols an encoder has shown but not had
+     * acknowledged.
+     */
+    default void windowChanged(int inFlight) {
+    }
+
+    /**
+     * An adaptive encoder changed its error correction level or packets per
+     * Data.
+     */
+    default void layoutChanged(ErrorCorrectionLevel ecLevel, int packets) {
+    }
+
+    /**
+     * A transfer finished.
+     * 
+     * @param bytes
+     *            - the size of the data
+     * @param nanos
+     *            - the time since the transfer started
+     */
+    default void transferCompleted(long bytes, long nanos) {
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Runs an encoder on its own thread, a few frames ahead of the display. The
+ * display takes frames when it is ready for them, and the encoder waits
+ * while enough are queued, so it runs at the display's rate. Captured replies
+ * are queued from any thread and given to the encoder with its next frame.
+ * Each frame is queued with how long the encoder asked to show it, see
+ * {@link #getFrameNanos()}.
+ * 
+ * <p>
+ * Every queued frame was chosen before the replies captured while it waited,
+ * so a deep queue makes the encoder slow to react. The default keeps one
+ * frame ready while the next is made.
+ * </p>
+ */
+public final class PipelinedFrameEncoder implements AutoCloseable {
+
+    /**
+     * The default number of frames made ahead of the display.
+     */
+    public static final int DEFAULT_DEPTH = 1;
+    // replies wait at most a frame, this only matters if the display stops
+    private static final int REPLY_QUEUE_SIZE = 64;
+
+    private static final class Frame {
+
+        private final ByteMatrix image;
+        private final long nanos;
+
+        Frame(ByteMatrix image, long nanos) {
+            this.image = image;
+            this.nanos = nanos;
+        }
+
+    }
+
+    private final PhosphrEncoder encoder;
+    private final BlockingQueue<Frame> frames;
+    private final BlockingDeque<BinaryBitmap> replies = new LinkedBlockingDeque<>(REPLY_QUEUE_SIZE);
+    private final ExecutorService worker;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    // of the frame the display last took
+    private volatile long frameNanos;
+
+    public PipelinedFrameEncoder(PhosphrEncoder encoder) {
+        this(encoder, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Create and start an encoder front end.
+     * 
+     * @param encoder
+     *            - the encoder, only called from the encoding thread
+     * @param depth
+     *            - the number of frames that may wait for the display
+     */
+    public PipelinedFrameEncoder(PhosphrEncoder encoder, int depth) {
+        checkArgument(depth >= 1, "need room for at least one frame, got %s", depth);
+        this.encoder = encoder;
+        this.frames = new ArrayBlockingQueue<>(depth);
+        this.worker = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("phosphr-encoder-%d")
+                .setDaemon(true)
+                .build());
+        worker.execute(this::work);
+    }
+
+    /**
+     * Queue a captured reply. Never blocks, the oldest reply is dropped if too
+     * many are waiting.
+     */
+    public void submit(BinaryBitmap image) {
+        while (!replies.offerLast(image)) {
+            replies.pollFirst();
+        }
+    }
+
+    /**
+     * Take the next frame to show, waiting for it if needed.
+     * 
+     * @return the next frame, or empty if none was ready in time, when the
+     *         last one should stay on the display
+     */
+    public Optional<ByteMatrix> nextImage(long timeout, TimeUnit unit) throws InterruptedException {
+        Frame next = frames.poll(timeout, unit);
+        if (next == null) {
+            return Optional.empty();
+        }
+        frameNanos = next.nanos;
+        return Optional.of(next.image);
+    }
+
+    /**
+     * How long to show the frame last taken from {@link #nextImage}, as
+     * {@link PhosphrEncoder#getFrameNanos()} said when it was made.
+     * 
+     * @return the time in nanoseconds, or {@code 0} if the display's frame
+     *         rate should be used
+     */
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+
+    /**
+     * Completes when the encoder has finished sending, from the encoding
+     * thread. Frames made before then may still be waiting for the display.
+     * Cancelled if closed before then.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    private void work() {
+        List<BinaryBitmap> received = new ArrayList<>();
+        try {
+            while (!encoder.isDataSendCompleted()) {
+                received.clear();
+                replies.drainTo(received);
+                ByteMatrix image = encoder.getNextImage(received.iterator());
+                frames.put(new Frame(image, encoder.getFrameNanos()));
+            }
+            completion.complete(null);
+        } catch (InterruptedException e) {
+            // closed
+            completion.cancel(false);
+        } catch (RuntimeException e) {
+            completion.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        completion.cancel(false);
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
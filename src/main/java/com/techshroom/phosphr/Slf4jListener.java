@@ -0,0 +1,116 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.zxing.ReaderException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Logs events. Per-frame and per-packet events are at trace, failures and
+ * retransmissions at debug, and finished transfers at info.
+ */
+public class Slf4jListener implements PhosphrListener {
+
+    private final Logger logger;
+
+    public Slf4jListener() {
+        this(LoggerFactory.getLogger(Slf4jListener.class));
+    }
+
+    public Slf4jListener(Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void frameDecoded(int symbols, long nanos) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Decoded {} symbol(s) in {}us", symbols, TimeUnit.NANOSECONDS.toMicros(nanos));
+        }
+    }
+
+    @Override
+    public void frameFailed(Throwable cause, long nanos) {
+        if (cause instanceof ReaderException) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("No symbol read from frame: {}", cause.getClass().getSimpleName());
+            }
+        } else {
+            logger.warn("Failed to process frame", cause);
+        }
+    }
+
+    @Override
+    public void frameSkipped() {
+        logger.trace("Skipped unchanged frame");
+    }
+
+    @Override
+    public void dataReceived(int first, int count, int duplicates) {
+        if (duplicates == count) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Already had packets {} to {}", first, first + count - 1);
+            }
+        } else if (logger.isTraceEnabled()) {
+            logger.trace("Received packets {} to {}, {} already had", first, first + count - 1, duplicates);
+        }
+    }
+
+    @Override
+    public void dataShown(int first, int count, boolean retransmission) {
+        if (retransmission) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Showing packets {} to {} again", first, first + count - 1);
+            }
+        } else if (logger.isTraceEnabled()) {
+            logger.trace("Showing packets {} to {}", first, first + count - 1);
+        }
+    }
+
+    @Override
+    public void windowChanged(int inFlight) {
+        if (logger.isTraceEnabled()) {
+            logger.trace("{} Data in flight", inFlight);
+        }
+    }
+
+    @Override
+    public void layoutChanged(ErrorCorrectionLevel ecLevel, int packets) {
+        logger.debug("Now sending {} packet(s) per Data at level {}", packets, ecLevel);
+    }
+
+    @Override
+    public void transferCompleted(long bytes, long nanos) {
+        if (logger.isInfoEnabled()) {
+            logger.info("Transferred {} bytes in {}ms, {} bytes/s", bytes, TimeUnit.NANOSECONDS.toMillis(nanos),
+                    nanos == 0 ? 0 : bytes * TimeUnit.SECONDS.toNanos(1) / nanos);
+        }
+    }
+
+}
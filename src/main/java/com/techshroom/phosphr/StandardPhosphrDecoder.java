@@ -26,88 +26,469 @@ package com.techshroom.phosphr;
 
 import static com.google.common.base.Preconditions.checkState;
 
-import java.nio.ByteBuffer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.BitSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
+import com.google.protobuf.ByteString;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.ReaderException;
 import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Compression;
 import com.techshroom.protos.Data;
+import com.techshroom.protos.PayloadFormat;
 import com.techshroom.protos.PhosphrMessage;
 import com.techshroom.protos.Request;
+import com.techshroom.protos.SelectiveAck;
+import com.techshroom.protos.Start;
+import com.techshroom.protos.Symbology;
 
 /**
- * The usual implementation of the decoder.
+ * The usual implementation of the decoder. It is safe to call
+ * {@link #consumeImage(BinaryBitmap)} from several threads at once, see
+ * {@link ParallelFrameDecoder}. Received data goes to a {@link DecoderSink},
+ * by default one on the heap. Progress can be kept in a
+ * {@link TransferCheckpoint} to resume after a restart, and how often Data is
+ * answered is set by an {@link AckPolicy}.
  */
 public class StandardPhosphrDecoder implements PhosphrDecoder {
 
-    private int numPackets;
-    private int packetSize;
-    private BitSet foundPackets;
-    private ByteBuffer data;
-    private int maxIndex;
-    private transient byte[] cachedData;
+    // packets covered by a selective ack, 128 bytes of bitmap
+    private static final int SACK_WINDOW = 1024;
+
+    /**
+     * Everything set up by a START. Replaced as a whole by the next START, so
+     * readers never see half of one.
+     */
+    private static final class Transfer {
+
+        private final Start start;
+        private final int numPackets;
+        private final int packetSize;
+        private final PayloadFormat format;
+        private final boolean selectiveAck;
+        private final boolean packedData;
+        private final int symbolsPerFrame;
+        private final SymbolCodec codec;
+        // the decoder's sink, or one inflating into it
+        private final DecoderSink sink;
+        private final AtomicBitSet foundPackets;
+        private final AtomicLong maxIndex;
+        private final AtomicBoolean finishing;
+        private final AtomicBoolean finished;
+        // 0 if not compressed
+        private final long uncompressedSize;
+        private final long startNanos;
+        // null if not recorded
+        private final TransferCheckpoint checkpoint;
+        // packets read since the last Request, and when it was made
+        private final AtomicInteger unacked;
+        private volatile long lastAckNanos = System.nanoTime();
+        private final AtomicInteger highestPacket;
+
+        // the Start has the format, compression and symbology the decoder
+        // agreed to
+        Transfer(Start start, DecoderSink sink, long startNanos, TransferCheckpoint checkpoint) {
+            Compression compression = start.getCompression();
+            this.start = start;
+            this.numPackets = start.getPacketCount();
+            this.packetSize = start.getPacketSize();
+            this.format = start.getFormat();
+            this.selectiveAck = start.getSelectiveAck();
+            this.packedData = start.getPackedData();
+            this.symbolsPerFrame = Math.max(1, start.getSymbolsPerFrame());
+            this.codec = SymbolCodecs.forSymbology(start.getSymbology());
+            this.sink = compression == Compression.DEFLATE
+                    ? new InflatingSink(sink, start.getUncompressedSize())
+                    : sink;
+            this.uncompressedSize = compression == Compression.DEFLATE ? start.getUncompressedSize() : 0;
+            this.startNanos = startNanos;
+            this.checkpoint = checkpoint;
+            this.foundPackets = new AtomicBitSet(numPackets);
+            this.maxIndex = new AtomicLong();
+            this.finishing = new AtomicBoolean();
+            this.finished = new AtomicBoolean();
+            this.unacked = new AtomicInteger();
+            this.highestPacket = new AtomicInteger(-1);
+        }
+
+        /**
+         * The same packets shown another way, after the encoder restarted.
+         * Shares what was received with the old one, so Data a worker is
+         * still reading into it counts for both.
+         */
+        Transfer(Start start, Transfer same) {
+            this.start = start;
+            this.numPackets = same.numPackets;
+            this.packetSize = same.packetSize;
+            this.format = start.getFormat();
+            this.selectiveAck = start.getSelectiveAck();
+            this.packedData = same.packedData;
+            this.symbolsPerFrame = Math.max(1, start.getSymbolsPerFrame());
+            this.codec = SymbolCodecs.forSymbology(start.getSymbology());
+            this.sink = same.sink;
+            this.uncompressedSize = same.uncompressedSize;
+            this.startNanos = same.startNanos;
+            this.checkpoint = same.checkpoint;
+            this.foundPackets = same.foundPackets;
+            this.maxIndex = same.maxIndex;
+            this.finishing = same.finishing;
+            this.finished = same.finished;
+            this.unacked = same.unacked;
+            this.highestPacket = same.highestPacket;
+        }
+
+    }
+
+    /**
+     * The last reply and its symbol. Repeated frames get the same reply, and
+     * making the symbol costs more than reading the frame.
+     */
+    private static final class Reply {
+
+        private final PhosphrMessage message;
+        private final PayloadFormat format;
+        private final ByteMatrix image;
+
+        Reply(PhosphrMessage message, PayloadFormat format, ByteMatrix image) {
+            this.message = message;
+            this.format = format;
+            this.image = image;
+        }
+
+    }
+
+    private final DecoderSink sink;
+    private final PhosphrListener listener;
+    private final boolean timed;
+    private final SymbolTracker tracker = new SymbolTracker();
+    private final TransferCheckpoint checkpoint;
+    private final AckPolicy ackPolicy;
+    // tells this decoder's replies apart from others watching the encoder
+    private final long receiverId = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+    private volatile Transfer transfer;
+    private volatile Reply lastReply;
+
+    public StandardPhosphrDecoder() {
+        this(DecoderSinks.heap());
+    }
+
+    public StandardPhosphrDecoder(DecoderSink sink) {
+        this(sink, PhosphrListener.NONE);
+    }
+
+    public StandardPhosphrDecoder(DecoderSink sink, PhosphrListener listener) {
+        this(sink, listener, AckPolicy.defaults());
+    }
+
+    public StandardPhosphrDecoder(DecoderSink sink, PhosphrListener listener, AckPolicy ackPolicy) {
+        this.sink = sink;
+        this.listener = listener;
+        this.timed = listener != PhosphrListener.NONE;
+        this.checkpoint = null;
+        this.ackPolicy = ackPolicy;
+    }
+
+    /**
+     * Create a decoder that records its progress in a checkpoint. If the
+     * checkpoint holds a transfer and the sink can resume, the decoder
+     * carries on with it, and asks only for the packets it is missing.
+     * 
+     * @throws UncheckedIOException
+     *             if the sink or checkpoint fails
+     */
+    public StandardPhosphrDecoder(DecoderSink sink, PhosphrListener listener, TransferCheckpoint checkpoint) {
+        this(sink, listener, checkpoint, AckPolicy.defaults());
+    }
+
+    /**
+     * Create a decoder that records its progress in a checkpoint, and answers
+     * Data as the policy says.
+     * 
+     * @throws UncheckedIOException
+     *             if the sink or checkpoint fails
+     */
+    public StandardPhosphrDecoder(DecoderSink sink, PhosphrListener listener, TransferCheckpoint checkpoint,
+            AckPolicy ackPolicy) {
+        this.sink = sink;
+        this.listener = listener;
+        this.timed = listener != PhosphrListener.NONE;
+        this.checkpoint = checkpoint;
+        this.ackPolicy = ackPolicy;
+        Optional<Start> start = checkpoint.getStart();
+        if (start.isPresent()) {
+            try {
+                this.transfer = resume(start.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static boolean canResume(Start start) {
+        return !start.getContentHash().isEmpty() && start.getCompression() == Compression.NONE;
+    }
+
+    /**
+     * Whether two Starts are for the same transfer, as when an encoder
+     * restarts. The format may differ, the packets are the same.
+     */
+    private static boolean isSameTransfer(Start a, Start b) {
+        return canResume(a) && a.getTransferId() == b.getTransferId()
+                && a.getContentHash().equals(b.getContentHash())
+                && a.getPacketCount() == b.getPacketCount()
+                && a.getPacketSize() == b.getPacketSize()
+                && a.getPackedData() == b.getPackedData()
+                && a.getCompression() == b.getCompression();
+    }
 
     @Override
     public Optional<ByteMatrix> consumeImage(BinaryBitmap image) {
-        PhosphrMessage msg;
+        return consume(image, false).getReply();
+    }
+
+    @Override
+    public ImageResult readImage(BinaryBitmap image) {
+        return consume(image, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Only a Start read this way agrees to color planes, the planes can't be
+     * told apart in an image from {@link #consumeImage(BinaryBitmap)}.
+     * </p>
+     */
+    @Override
+    public Optional<ByteMatrix> consumePlanes(BinaryBitmap red, BinaryBitmap green, BinaryBitmap blue) {
+        Optional<ByteMatrix> reply = Optional.empty();
+        for (BinaryBitmap plane : new BinaryBitmap[] { red, green, blue }) {
+            Optional<ByteMatrix> next = consume(plane, true).getReply();
+            if (next.isPresent()) {
+                reply = next;
+            }
+        }
+        return reply;
+    }
+
+    // planes is whether the image is one plane of a color frame
+    private ImageResult consume(BinaryBitmap image, boolean planes) {
+        long start = timed ? System.nanoTime() : 0;
+        Transfer t = transfer;
+        List<PhosphrMessage> msgs;
         try {
-            msg = MsgHelper.decode(image);
+            msgs = decode(t, image);
         } catch (RuntimeException e) {
-            if (e.getCause() instanceof ReaderException) {
-                return Optional.empty();
+            Throwable cause = e.getCause() instanceof ReaderException ? e.getCause() : e;
+            listener.frameFailed(cause, timed ? System.nanoTime() - start : 0);
+            if (cause instanceof ReaderException) {
+                return ImageResult.unread();
             }
             throw e;
         }
-        return processMessage(msg).map(MsgHelper::encode);
+        // one reply per frame, the last one covers all of the symbols
+        Optional<PhosphrMessage> reply = Optional.empty();
+        for (PhosphrMessage msg : msgs) {
+            Optional<PhosphrMessage> next = processMessage(msg, planes);
+            if (next.isPresent()) {
+                reply = next;
+            }
+        }
+        PayloadFormat format = transfer == null ? PayloadFormat.BASE64 : transfer.format;
+        Optional<ByteMatrix> replyImage = reply.map(r -> encodeReply(r, format));
+        listener.frameDecoded(msgs.size(), timed ? System.nanoTime() - start : 0);
+        return ImageResult.read(replyImage);
     }
 
-    private Optional<PhosphrMessage> processMessage(PhosphrMessage msg) {
+    private List<PhosphrMessage> decode(Transfer t, BinaryBitmap image) {
+        if (t != null && t.codec.getSymbology() != Symbology.QR_CODE) {
+            try {
+                return ImmutableList.of(MsgHelper.decode(image, t.codec));
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof ReaderException)) {
+                    throw e;
+                }
+                // may be the Start of another transfer, always a QR code
+                return ImmutableList.of(tracker.decode(image));
+            }
+        }
+        return t != null && t.symbolsPerFrame > 1
+                ? MsgHelper.decodeAll(image)
+                : ImmutableList.of(tracker.decode(image));
+    }
+
+    private ByteMatrix encodeReply(PhosphrMessage reply, PayloadFormat format) {
+        Reply last = lastReply;
+        if (last != null && last.format == format && last.message.equals(reply)) {
+            return last.image;
+        }
+        ByteMatrix image = MsgHelper.encode(reply, format);
+        lastReply = new Reply(reply, format, image);
+        return image;
+    }
+
+    // benchmarked without the QR step
+    @VisibleForTesting
+    Optional<PhosphrMessage> processMessage(PhosphrMessage msg, boolean planes) {
+        Transfer t = transfer;
         switch (msg.getKindCase()) {
             case START:
-                // reply with same message, sequence incremented
-                numPackets = msg.getStart().getPacketCount();
-                packetSize = msg.getStart().getPacketSize();
-                foundPackets = new BitSet(numPackets);
-                data = ByteBuffer.allocate(numPackets * packetSize);
-                return Optional.of(msg.toBuilder().setSequence(msg.getSequence() + 1).build());
+                // reply with same message, sequence incremented, and the
+                // format, compression and symbology we will use
+                PayloadFormat format = msg.getStart().getFormat();
+                if (format == PayloadFormat.UNRECOGNIZED) {
+                    format = PayloadFormat.BASE64;
+                }
+                Compression compression = msg.getStart().getCompression();
+                if (compression == Compression.UNRECOGNIZED) {
+                    compression = Compression.NONE;
+                }
+                Symbology symbology = msg.getStart().getSymbology();
+                if (symbology == Symbology.UNRECOGNIZED) {
+                    symbology = Symbology.QR_CODE;
+                }
+                Start.Builder agreed = msg.getStart().toBuilder()
+                        .setFormat(format)
+                        .setCompression(compression)
+                        .setSymbology(symbology);
+                if (symbology != Symbology.QR_CODE) {
+                    // only QR codes can be found side by side
+                    agreed.setSymbolsPerFrame(1);
+                }
+                if (!planes) {
+                    // this frame was read in grayscale, so Data in each
+                    // plane would be unreadable
+                    agreed.setColorPlanes(false);
+                }
+                Start start = agreed.build();
+                Transfer next = t;
+                // workers may see copies of the Start after Data, those
+                // change nothing
+                if (t == null || !t.start.equals(start)) {
+                    try {
+                        next = t != null && isSameTransfer(t.start, start)
+                                ? new Transfer(start, t)
+                                : startTransfer(start);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    transfer = next;
+                }
+                Start.Builder echo = start.toBuilder().setReceiverId(receiverId);
+                if (next.foundPackets.cardinality() > 0) {
+                    echo.setResumed(buildSelectiveAck(next));
+                }
+                return Optional.of(msg.toBuilder()
+                        .setSequence(msg.getSequence() + 1)
+                        .setStart(echo)
+                        .build());
             case END:
                 // if needed, reply with requests
-                if (!hasResult()) {
+                if (!hasResult(t)) {
                     break; // does request reply
                 }
                 // reply with end message, sequence incremented
                 return Optional.of(msg.toBuilder().setSequence(msg.getSequence() + 1).build());
             case DATA:
                 // copy in data, send back requests (handled in default)
-                readData(msg.getSequence(), msg.getData());
+                if (!readData(t, msg.getSequence(), msg.getData())) {
+                    return Optional.empty();
+                }
                 break;
             default:
                 throw new IllegalStateException("Unexpected packet: " + msg.getKindCase());
         }
+        if (t == null) {
+            // missed the start, nothing to report yet
+            return Optional.empty();
+        }
         return Optional.of(PhosphrMessage.newBuilder()
                 .setSequence(0)
-                .setRequest(Request.newBuilder()
-                        .addAllMissedPackets(this::missingPacketIter)
-                        .build())
+                .setRequest(buildRequest(t))
                 .build());
     }
 
-    private Iterator<Integer> missingPacketIter() {
+    private Transfer startTransfer(Start start) throws IOException {
+        if (checkpoint != null && checkpoint.getStart().filter(s -> isSameTransfer(s, start)).isPresent()) {
+            return resume(start);
+        }
+        return startOver(newTransfer(start));
+    }
+
+    private Transfer startOver(Transfer t) throws IOException {
+        t.sink.start((long) t.numPackets * t.packetSize);
+        if (t.checkpoint != null) {
+            t.checkpoint.begin(t.start);
+        } else if (checkpoint != null) {
+            checkpoint.clear();
+        }
+        return t;
+    }
+
+    // carry on with the transfer in the checkpoint, or start it over
+    private Transfer resume(Start start) throws IOException {
+        Transfer t = newTransfer(start);
+        if (t.checkpoint == null || !t.sink.resume((long) t.numPackets * t.packetSize)) {
+            return startOver(t);
+        }
+        BitSet received = checkpoint.getReceived();
+        for (int i = received.nextSetBit(0); i >= 0 && i < t.numPackets; i = received.nextSetBit(i + 1)) {
+            t.foundPackets.set(i);
+        }
+        t.maxIndex.set(checkpoint.getEnd());
+        if (hasResult(t)) {
+            // stopped between the last record and finishing
+            finish(t);
+        }
+        return t;
+    }
+
+    private Transfer newTransfer(Start start) {
+        return new Transfer(start, sink, timed ? System.nanoTime() : 0, canResume(start) ? checkpoint : null);
+    }
+
+    private Request buildRequest(Transfer t) {
+        if (!t.selectiveAck) {
+            return Request.newBuilder()
+                    .addAllMissedPackets(() -> missingPacketIter(t))
+                    .setReceiverId(receiverId)
+                    .build();
+        }
+        return Request.newBuilder()
+                .setSelectiveAck(buildSelectiveAck(t))
+                .setReceiverId(receiverId)
+                .build();
+    }
+
+    private static SelectiveAck buildSelectiveAck(Transfer t) {
+        int first = t.foundPackets.nextClearBit(0);
+        BitSet window = t.foundPackets.get(first, Math.min(first + SACK_WINDOW, t.numPackets));
+        return SelectiveAck.newBuilder()
+                .setFirstMissing(first)
+                .setReceived(ByteString.copyFrom(window.toByteArray()))
+                .build();
+    }
+
+    private Iterator<Integer> missingPacketIter(Transfer t) {
         return new AbstractIterator<Integer>() {
 
             private int index;
 
             @Override
             protected Integer computeNext() {
-                while (foundPackets.get(index) && index < numPackets) {
-                    index++;
-                }
-                if (index >= numPackets) {
+                index = t.foundPackets.nextClearBit(index);
+                if (index >= t.numPackets) {
                     return endOfData();
                 }
                 int ret = index;
@@ -117,45 +498,120 @@ public class StandardPhosphrDecoder implements PhosphrDecoder {
         };
     }
 
-    private void readData(int seq, Data d) {
-        if (foundPackets == null) {
-            return;
+    // returns whether to answer now
+    private boolean readData(Transfer t, int seq, Data d) {
+        if (t == null) {
+            return false;
         }
-        if (foundPackets.get(seq)) {
+        checkState(seq >= 0 && seq < t.numPackets, "packet %s is outside of the transfer, expected less than %s",
+                seq, t.numPackets);
+        int size = d.getContent().size();
+        int maxSize = t.packedData ? (t.numPackets - seq) * t.packetSize : t.packetSize;
+        checkState(size <= maxSize, "incorrect size of packet, expected at most %s got %s", maxSize, size);
+        // packed data holds a run of packets, the last may be short
+        int end = seq + Math.max(1, (size + (t.packetSize - 1)) / t.packetSize);
+        if (t.foundPackets.nextClearBit(seq) >= end) {
             // TODO should we validate?
+            listener.dataReceived(seq, end - seq, end - seq);
+            return shouldAck(t, seq, end);
+        }
+        // copies of a packet are the same bytes, so racing writes are fine.
+        // bits are set after the write, which publishes it
+        long offset = (long) seq * t.packetSize;
+        try {
+            t.sink.write(offset, d.getContent().asReadOnlyByteBuffer());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        t.maxIndex.accumulateAndGet(offset + size, Math::max);
+        int duplicates = 0;
+        for (int i = seq; i < end; i++) {
+            if (!t.foundPackets.set(i)) {
+                duplicates++;
+            }
+        }
+        listener.dataReceived(seq, end - seq, duplicates);
+        try {
+            if (t.checkpoint != null) {
+                t.checkpoint.received(seq, end - seq, offset + size, t.sink);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (hasResult(t)) {
+            finish(t);
+        }
+        return shouldAck(t, seq, end);
+    }
+
+    // racing threads may both answer, which costs a symbol and nothing else
+    private boolean shouldAck(Transfer t, int seq, int end) {
+        boolean gap = seq > t.highestPacket.getAndAccumulate(end - 1, Math::max) + 1;
+        int unacked = t.unacked.addAndGet(end - seq);
+        long maxDelay = ackPolicy.getMaxDelayNanos();
+        long now = maxDelay == 0 ? 0 : System.nanoTime();
+        if (unacked < ackPolicy.getPackets() && !(gap && ackPolicy.isAckGaps())
+                && (maxDelay == 0 || now - t.lastAckNanos < maxDelay) && !hasResult(t)) {
+            return false;
+        }
+        t.unacked.set(0);
+        if (maxDelay != 0) {
+            t.lastAckNanos = now;
+        }
+        return true;
+    }
+
+    private void finish(Transfer t) {
+        // only one thread gets to finish
+        if (!t.finishing.compareAndSet(false, true)) {
             return;
         }
-        System.err.println("get packet " + seq + ", missing " + ImmutableList.copyOf(missingPacketIter()));
-        foundPackets.set(seq);
-        data.position(seq * packetSize);
-        checkState(d.getContent().size() <= packetSize, "incorrect size of packet, expected %s got %s", packetSize, d.getContent().size());
-        data.put(d.getContent().asReadOnlyByteBuffer());
-        maxIndex = Math.max(maxIndex, data.position());
+        try {
+            t.sink.finish(t.maxIndex.get());
+            if (t.checkpoint != null) {
+                t.checkpoint.clear();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        t.finished.set(true);
+        listener.transferCompleted(t.uncompressedSize == 0 ? t.maxIndex.get() : t.uncompressedSize,
+                timed ? System.nanoTime() - t.startNanos : 0);
     }
 
-    private boolean hasResult() {
-        if (foundPackets == null) {
+    private static boolean hasResult(Transfer t) {
+        if (t == null) {
             return false;
         }
-        return foundPackets.cardinality() == numPackets;
+        return t.foundPackets.cardinality() == t.numPackets;
+    }
+
+    /**
+     * Whether all of the data has been given to the sink.
+     */
+    public boolean isFinished() {
+        return isFinished(transfer);
+    }
+
+    private static boolean isFinished(Transfer t) {
+        return t != null && t.finished.get();
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>
+     * Always empty unless the sink keeps the data in memory, use
+     * {@link #isFinished()} for the others.
+     * </p>
+     */
     @Override
     public Optional<byte[]> getResult() {
-        if (!hasResult()) {
+        Transfer t = transfer;
+        if (!isFinished(t)) {
             return Optional.empty();
         }
-        if (cachedData == null) {
-            int pos = data.position();
-            int lim = data.limit();
-            data.position(0);
-            data.limit(maxIndex);
-            cachedData = new byte[data.remaining()];
-            data.get(cachedData);
-            data.position(pos);
-            data.limit(lim);
-        }
-        return Optional.of(cachedData);
+        return t.sink.getResult();
     }
 
 }
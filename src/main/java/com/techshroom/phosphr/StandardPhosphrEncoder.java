@@ -24,36 +24,127 @@
  */
 package com.techshroom.phosphr;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
 import com.google.zxing.BinaryBitmap;
 import com.google.zxing.ReaderException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Compression;
 import com.techshroom.protos.Data;
 import com.techshroom.protos.End;
+import com.techshroom.protos.PayloadFormat;
 import com.techshroom.protos.PhosphrMessage;
 import com.techshroom.protos.Request;
+import com.techshroom.protos.SelectiveAck;
 import com.techshroom.protos.Start;
 
 public class StandardPhosphrEncoder implements PhosphrEncoder {
 
     public static StandardPhosphrEncoder fromBytes(byte[] data) {
-        ByteBuffer buf = ByteBuffer.allocate(data.length);
-        buf.put(data);
-        buf.flip();
-        return new StandardPhosphrEncoder(buf.asReadOnlyBuffer());
+        return fromBytes(data, EncoderSettings.defaults());
     }
 
     public static StandardPhosphrEncoder fromBytes(ByteBuffer data) {
-        ByteBuffer buf = ByteBuffer.allocate(data.remaining());
-        buf.put(data);
-        buf.flip();
-        return new StandardPhosphrEncoder(buf.asReadOnlyBuffer());
+        return fromBytes(data, EncoderSettings.defaults());
+    }
+
+    /**
+     * Create an encoder that asks to use the given format. If the decoder does
+     * not support it, {@link PayloadFormat#BASE64} is used instead.
+     */
+    public static StandardPhosphrEncoder fromBytes(byte[] data, PayloadFormat format) {
+        return fromBytes(data, EncoderSettings.builder().format(format).build());
+    }
+
+    public static StandardPhosphrEncoder fromBytes(ByteBuffer data, PayloadFormat format) {
+        return fromBytes(data, EncoderSettings.builder().format(format).build());
+    }
+
+    /**
+     * Create an encoder for the array, which is wrapped rather than copied, as
+     * in {@link #fromBytes(ByteBuffer, EncoderSettings)}. It must not change
+     * until the encoder is done.
+     */
+    public static StandardPhosphrEncoder fromBytes(byte[] data, EncoderSettings settings) {
+        return fromBytes(ByteBuffer.wrap(data), settings);
+    }
+
+    /**
+     * Create an encoder for the remaining bytes of the buffer. They are not
+     * copied, and must not change until the encoder is done. A resumable
+     * encoder also hashes them when it is made, and a receiver only resumes a
+     * transfer with the same hash, so changed bytes would be mixed with
+     * packets it already has.
+     */
+    public static StandardPhosphrEncoder fromBytes(ByteBuffer data, EncoderSettings settings) {
+        return new StandardPhosphrEncoder(PacketSource.of(data), settings);
+    }
+
+    public static StandardPhosphrEncoder fromPath(Path file) throws IOException {
+        return fromPath(file, EncoderSettings.defaults());
+    }
+
+    /**
+     * Create an encoder for a file, which is memory-mapped rather than read
+     * into the heap. Files over 2GB can be sent with
+     * {@link #fromChannel(SeekableByteChannel, EncoderSettings)}.
+     */
+    public static StandardPhosphrEncoder fromPath(Path file, EncoderSettings settings) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            checkArgument(channel.size() <= Integer.MAX_VALUE, "too large to map: %s", file);
+            // the mapping outlives the channel
+            return fromBytes(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), settings);
+        }
+    }
+
+    public static StandardPhosphrEncoder fromChannel(SeekableByteChannel channel) throws IOException {
+        return fromChannel(channel, EncoderSettings.defaults());
+    }
+
+    /**
+     * Create an encoder that reads each packet from the channel when it is
+     * needed. The channel must stay open, and its contents the same, until the
+     * encoder is done. It is not closed.
+     */
+    public static StandardPhosphrEncoder fromChannel(SeekableByteChannel channel, EncoderSettings settings)
+            throws IOException {
+        return new StandardPhosphrEncoder(PacketSource.of(channel), settings);
     }
 
     private enum State {
@@ -65,33 +156,220 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
 
     }
 
-    private static final int PACKET_SIZE = 2048;
+    private static final int BASE64_PACKET_SIZE = 2048;
+    // fits a version 40-L symbol with the marker and message overhead
+    private static final int BINARY_PACKET_SIZE = 2900;
+    // packed data is sent in multiples of this
+    private static final int PACKED_PACKET_SIZE = 256;
 
-    private final ByteMatrix startImage;
-    private final ByteMatrix endImage;
-    private final ByteBuffer data;
+    // change layout when the loss rate passes these
+    private static final double RAISE_LOSS = 0.25;
+    private static final double LOWER_LOSS = 0.02;
+    private static final int MIN_LAYOUT_SAMPLES = 8;
+    // paced frame rates, in frames per second, and the window before the
+    // first round trip is timed
+    private static final double MIN_FRAME_RATE = 1;
+    private static final double INITIAL_FRAME_RATE = 10;
+    private static final double FRAME_RATE_CUT = 0.75;
+    private static final int INITIAL_WINDOW = 2;
+    private static final long PRE_ENCODER_IDLE_SECONDS = 5;
+    // shown Data a receiver may go without a reply while others reply,
+    // before it is taken to have left
+    private static final int RECEIVER_TIMEOUT = 64;
+    // bytes read at a time when hashing
+    private static final int HASH_CHUNK = 1 << 16;
+
+    private final PacketSource source;
+    // the source deflated, if that paid off
+    private final PacketSource deflated;
+    private final int windowSize;
+    private final int cacheSize;
+    private final int lookAhead;
+    private final int receivers;
+    private final boolean paced;
+    private final double maxFrameRate;
+    private final ExecutorService preEncoder;
+    private final PhosphrListener listener;
+    private final boolean timed;
+    // frames are color planes, see MsgHelper.mergePlanes
+    private final boolean planeFrames;
+    // SHA-256 of the source, empty if not resumable
+    private final ByteString contentHash;
+    private final long transferId;
+    private final Ticker ticker;
+    private final Stopwatch transferTime;
+    // encoded Data symbols, see symbolKey
+    private Cache<Long, CompletableFuture<ByteMatrix>> symbolCache;
     private final Deque<BinaryBitmap> unprocessed = new ArrayDeque<>();
-    private final BitSet likelyRecv;
+    private final SymbolTracker replyTracker = new SymbolTracker();
+    private PayloadFormat format;
+    private Compression compression;
+    // what Data and End are shown in
+    private SymbolCodec codec;
+    // what is being sent, source or deflated
+    private PacketSource data;
+    private boolean packedData;
+    private int symbolsPerFrame;
+    // Data goes in each plane, not just copied to all of them
+    private boolean colorPlanes;
+    private int packetSize;
+    private ByteMatrix startImage;
+    private ByteMatrix endImage;
+    // packets each receiver has reported, by receiver id
+    private final Map<Long, BitSet> receiverRecv = new LinkedHashMap<>();
+    // when each receiver was last heard from, in shown images
+    private final Map<Long, Integer> receiverHeardAt = new HashMap<>();
+    // packets every receiver has reported
+    private BitSet likelyRecv;
+    // first packet of each Data shown but not acknowledged, in the order they
+    // were last shown
+    private final Deque<Integer> inFlight = new ArrayDeque<>();
+    // known lost, waiting to be shown again
+    private BitSet lost;
+    // the last time each Data was shown, in shown images, by first packet
+    private int[] shownAt;
+    // the first time each Data was shown since it was new or lost. Data are
+    // shown again while the window is full, and an ack may be for any of
+    // those showings
+    private int[] firstShownAt;
+    // the number of packets in each Data, and the layout it was made for, by
+    // first packet
+    private int[] dataPackets;
+    private int[] dataLayout;
+    // packets shown at least once
+    private BitSet shownPackets;
+    private int showCount;
+    private int nextNew;
+    private List<PacketLayout> layouts;
+    private int layout;
+    private double lossRate;
+    private int layoutSamples;
+    // when paced, the time of the current frame, when each Data was first
+    // shown by first packet, -1 if it was lost, and the smoothed time until
+    // it is acknowledged, 0 until the first
+    private long frameNanos;
+    private long[] shownNanos;
+    private double roundTripNanos;
+    private double frameRate;
+    private double paceLoss;
+    // Data shown before the frame rate was last cut, their losses were
+    // already counted. -1 before the first cut, while the rate doubles
+    // each round trip
+    private int lastCut;
     private State state = State.DISP_START;
 
-    private StandardPhosphrEncoder(ByteBuffer data) {
-        this.data = data;
-        this.startImage = MsgHelper.encode(PhosphrMessage.newBuilder()
+    private StandardPhosphrEncoder(PacketSource source, EncoderSettings settings) {
+        this.source = source;
+        this.deflated = settings.getCompression() == Compression.DEFLATE
+                ? PacketSource.deflate(source, settings.getCompressionLevel()).orElse(null)
+                : null;
+        this.windowSize = settings.getWindowSize();
+        this.cacheSize = settings.getCacheSize();
+        this.lookAhead = settings.getLookAhead();
+        this.receivers = settings.getReceivers();
+        this.paced = settings.isPaced();
+        this.maxFrameRate = settings.getMaxFrameRate();
+        this.ticker = settings.getTicker();
+        this.transferTime = Stopwatch.createUnstarted(ticker);
+        this.listener = settings.getListener();
+        this.timed = listener != PhosphrListener.NONE;
+        this.planeFrames = settings.isColorPlanes();
+        this.contentHash = settings.isResumable() ? hash(source) : ByteString.EMPTY;
+        this.transferId = settings.getTransferId() != 0 || contentHash.isEmpty()
+                ? settings.getTransferId()
+                : contentHash.asReadOnlyByteBuffer().getLong();
+        this.preEncoder = lookAhead == 0 ? null : newPreEncoder();
+        configure(settings.getFormat(), deflated == null ? Compression.NONE : Compression.DEFLATE,
+                settings.isAdaptive(), settings.getSymbolsPerFrame(), planeFrames,
+                SymbolCodecs.forSymbology(settings.getSymbology()));
+    }
+
+    // the thread stops when idle, so an encoder that is dropped before its
+    // transfer ends doesn't keep one parked
+    private static ExecutorService newPreEncoder() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, PRE_ENCODER_IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactoryBuilder()
+                        .setNameFormat("phosphr-pre-encoder-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ByteString hash(PacketSource source) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (long offset = 0; offset < source.size(); offset += HASH_CHUNK) {
+            int length = (int) Math.min(HASH_CHUNK, source.size() - offset);
+            hasher.putBytes(source.read(offset, length).asReadOnlyByteBuffer());
+        }
+        return UnsafeByteOperations.unsafeWrap(hasher.hash().asBytes());
+    }
+
+    private void configure(PayloadFormat format, Compression compression, boolean packedData, int symbolsPerFrame,
+            boolean colorPlanes, SymbolCodec codec) {
+        this.format = format;
+        this.compression = compression;
+        this.codec = codec;
+        this.colorPlanes = colorPlanes;
+        this.data = compression == Compression.DEFLATE ? deflated : source;
+        this.packedData = packedData;
+        this.symbolsPerFrame = symbolsPerFrame;
+        if (packedData) {
+            this.packetSize = PACKED_PACKET_SIZE;
+            this.layouts = PacketLayout.ladder(format, packetSize, codec);
+        } else {
+            this.packetSize = Math.min(format == PayloadFormat.BINARY ? BINARY_PACKET_SIZE : BASE64_PACKET_SIZE,
+                    PacketLayout.maxPacketSize(format, codec));
+            this.layouts = ImmutableList.of(new PacketLayout(ErrorCorrectionLevel.L, 1));
+        }
+        // start is always a Base64 QR code, every decoder must be able to
+        // read it
+        this.startImage = toFrame(MsgHelper.encode(PhosphrMessage.newBuilder()
                 .setSequence(0)
                 .setStart(Start.newBuilder()
-                        .setPacketSize(PACKET_SIZE)
+                        .setPacketSize(packetSize)
                         .setPacketCount(getPacketCount())
+                        .setFormat(format)
+                        .setSelectiveAck(true)
+                        .setPackedData(packedData)
+                        .setSymbolsPerFrame(symbolsPerFrame)
+                        .setCompression(compression)
+                        .setUncompressedSize(source.size())
+                        .setColorPlanes(colorPlanes)
+                        .setTransferId(transferId)
+                        .setContentHash(contentHash)
+                        .setSymbology(codec.getSymbology())
                         .build())
-                .build());
-        this.endImage = MsgHelper.encode(PhosphrMessage.newBuilder()
+                .build()));
+        this.endImage = toFrame(MsgHelper.encode(PhosphrMessage.newBuilder()
                 .setSequence(0)
                 .setEnd(End.getDefaultInstance())
-                .build());
+                .build(), format, ErrorCorrectionLevel.L, codec));
+        receiverRecv.clear();
+        receiverHeardAt.clear();
         likelyRecv = new BitSet(getPacketCount());
+        lost = new BitSet(getPacketCount());
+        shownAt = new int[getPacketCount()];
+        firstShownAt = new int[getPacketCount()];
+        dataPackets = new int[getPacketCount()];
+        dataLayout = new int[getPacketCount()];
+        shownPackets = new BitSet(getPacketCount());
+        inFlight.clear();
+        nextNew = 0;
+        layout = 0;
+        lossRate = 0;
+        layoutSamples = 0;
+        shownNanos = paced ? new long[getPacketCount()] : null;
+        roundTripNanos = 0;
+        frameRate = Math.min(maxFrameRate, INITIAL_FRAME_RATE);
+        paceLoss = 0;
+        lastCut = -1;
+        // symbols from the old settings are no use
+        symbolCache = cacheSize == 0 ? null : CacheBuilder.newBuilder().maximumSize(cacheSize).build();
     }
 
     private int getPacketCount() {
-        return (data.limit() + (PACKET_SIZE - 1)) / PACKET_SIZE;
+        return (int) ((data.size() + (packetSize - 1)) / packetSize);
     }
 
     @Override
@@ -99,15 +377,29 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
         return state == State.TERMINATED;
     }
 
+    @Override
+    public long getFrameNanos() {
+        return paced ? (long) (1e9 / frameRate) : 0;
+    }
+
     @Override
     public ByteMatrix getNextImage(Iterator<BinaryBitmap> image) {
+        if (timed && !transferTime.isRunning() && state == State.DISP_START) {
+            transferTime.start();
+        }
+        if (paced) {
+            frameNanos = ticker.read();
+        }
         image.forEachRemaining(unprocessed::addLast);
         changeState();
         switch (state) {
             case DISP_START:
                 return startImage;
             case DISP_DATA:
-                return nextDataImage();
+                ByteMatrix next = nextDataImage();
+                listener.windowChanged(inFlight.size());
+                preEncode();
+                return next;
             case DISP_END:
                 return endImage;
             default:
@@ -116,20 +408,150 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
     }
 
     private ByteMatrix nextDataImage() {
-        int next = likelyRecv.nextClearBit(0);
-        data.position(next * PACKET_SIZE);
-        int size = Math.min(PACKET_SIZE, data.remaining());
+        int planes = colorPlanes ? MsgHelper.PLANES : 1;
+        if (symbolsPerFrame == 1 && planes == 1) {
+            return toFrame(showData(nextData()));
+        }
+        List<ByteMatrix> planeImages = new ArrayList<>(planes);
+        Set<Integer> inFrame = new HashSet<>();
+        boolean cycled = false;
+        while (planeImages.size() < planes && !cycled) {
+            List<ByteMatrix> symbols = new ArrayList<>(symbolsPerFrame);
+            while (symbols.size() < symbolsPerFrame) {
+                int next = nextData();
+                if (!inFrame.add(next)) {
+                    // cycled through the whole window, put it back
+                    inFlight.addFirst(next);
+                    cycled = true;
+                    break;
+                }
+                symbols.add(showData(next));
+            }
+            if (!symbols.isEmpty()) {
+                planeImages.add(MsgHelper.tile(symbols));
+            }
+        }
+        return planeImages.size() == 1 ? toFrame(planeImages.get(0)) : MsgHelper.mergePlanes(planeImages);
+    }
+
+    // the same symbol in every plane, so any plane can read it
+    private ByteMatrix toFrame(ByteMatrix symbol) {
+        return planeFrames ? MsgHelper.mergePlanes(ImmutableList.of(symbol, symbol, symbol)) : symbol;
+    }
+
+    private ByteMatrix showData(int next) {
+        shownAt[next] = showCount++;
+        inFlight.addLast(next);
+        int packets = dataPackets[next];
+        int layoutIndex = dataLayout[next];
+        boolean again = shownPackets.nextSetBit(next) >= 0 && shownPackets.nextSetBit(next) < next + packets;
+        listener.dataShown(next, packets, again);
+        shownPackets.set(next, next + packets);
+        if (paced && shownAt[next] == firstShownAt[next]) {
+            // timed from its first showing, like losses are found. An ack
+            // for Data that was lost could still be for the lost showing
+            shownNanos[next] = again ? -1 : frameNanos;
+        }
+        if (symbolCache == null) {
+            return encodeData(next, packets, layoutIndex);
+        }
+        return symbolCache.asMap().computeIfAbsent(symbolKey(next, packets, layoutIndex),
+                k -> CompletableFuture.completedFuture(encodeData(next, packets, layoutIndex)))
+                .join();
+    }
+
+    private static long symbolKey(int seq, int packets, int layoutIndex) {
+        return ((long) seq << 32) | ((long) packets << 8) | layoutIndex;
+    }
+
+    // called from the pre-encoder too
+    private ByteMatrix encodeData(int seq, int packets, int layoutIndex) {
+        long offset = (long) seq * packetSize;
+        int size = (int) Math.min((long) packets * packetSize, data.size() - offset);
         return MsgHelper.encode(PhosphrMessage.newBuilder()
-                .setSequence(next)
-                .setData(Data.newBuilder().setContent(ByteString.copyFrom(data, size)))
-                .build());
+                .setSequence(seq)
+                .setData(Data.newBuilder().setContent(data.read(offset, size)))
+                .build(), format, layouts.get(layoutIndex).getEcLevel(), codec);
+    }
+
+    /**
+     * Start encoding the Data that {@link #nextData()} is likely to pick next:
+     * lost packets first, then new ones, at the current layout.
+     */
+    private void preEncode() {
+        if (preEncoder == null) {
+            return;
+        }
+        int maxPackets = layouts.get(layout).getPackets();
+        int queued = 0;
+        for (int seq = lost.nextSetBit(0); seq >= 0 && queued < lookAhead; queued++) {
+            int end = Math.min(lost.nextClearBit(seq), seq + maxPackets);
+            preEncode(seq, end - seq, layout);
+            seq = lost.nextSetBit(end);
+        }
+        for (int seq = likelyRecv.nextClearBit(nextNew); seq < getPacketCount() && queued < lookAhead; queued++) {
+            int end = newDataEnd(seq, maxPackets);
+            preEncode(seq, end - seq, layout);
+            seq = likelyRecv.nextClearBit(end);
+        }
+    }
+
+    private void preEncode(int seq, int packets, int layoutIndex) {
+        symbolCache.asMap().computeIfAbsent(symbolKey(seq, packets, layoutIndex),
+                k -> CompletableFuture.supplyAsync(() -> encodeData(seq, packets, layoutIndex), preEncoder));
+    }
+
+    // new packets run up to one the decoder already has
+    private int newDataEnd(int seq, int maxPackets) {
+        int end = Math.min(getPacketCount(), seq + maxPackets);
+        int received = likelyRecv.nextSetBit(seq);
+        return received < 0 ? end : Math.min(end, received);
+    }
+
+    private int nextData() {
+        int maxPackets = layouts.get(layout).getPackets();
+        if (inFlight.size() < getWindow()) {
+            // window has room, fill it with lost packets first
+            int next = mostNeededLost();
+            if (next >= 0) {
+                int end = Math.min(lost.nextClearBit(next), next + maxPackets);
+                lost.clear(next, end);
+                dataPackets[next] = end - next;
+                dataLayout[next] = layout;
+                // shown right after this
+                firstShownAt[next] = showCount;
+                return next;
+            }
+            // skip packets the decoder had before a resume
+            nextNew = Math.min(likelyRecv.nextClearBit(nextNew), getPacketCount());
+            if (nextNew < getPacketCount()) {
+                int end = newDataEnd(nextNew, maxPackets);
+                dataPackets[nextNew] = end - nextNew;
+                dataLayout[nextNew] = layout;
+                firstShownAt[nextNew] = showCount;
+                next = nextNew;
+                nextNew = end;
+                return next;
+            }
+        }
+        // cycle through the window until something is acknowledged
+        Integer again = inFlight.pollFirst();
+        if (again == null) {
+            // nothing lost or in flight, but not everything received, show
+            // whatever is missing again
+            lost.set(0, nextNew);
+            lost.andNot(likelyRecv);
+            checkState(!lost.isEmpty(), "nothing left to send");
+            return nextData();
+        }
+        return again;
     }
 
     private void changeState() {
         while (!unprocessed.isEmpty()) {
             PhosphrMessage msg;
             try {
-                msg = MsgHelper.decode(unprocessed.pollFirst());
+                msg = replyTracker.decode(unprocessed.pollFirst());
             } catch (RuntimeException e) {
                 if (e.getCause() instanceof ReaderException) {
                     continue;
@@ -138,8 +560,30 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
             }
             switch (state) {
                 case DISP_START:
-                    if (msg.hasStart() && msg.getSequence() == 1 && msg.getStart().getPacketCount() == getPacketCount()) {
-                        state = State.DISP_DATA;
+                    if (msg.hasStart() && msg.getSequence() == 1 && isCurrentStart(msg.getStart())) {
+                        Start echo = msg.getStart();
+                        if (echo.getFormat() == format && echo.getPackedData() == packedData
+                                && Math.max(1, echo.getSymbolsPerFrame()) == symbolsPerFrame
+                                && echo.getCompression() == compression
+                                && echo.getColorPlanes() == colorPlanes
+                                && echo.getSymbology() == codec.getSymbology()) {
+                            BitSet recv = receiverRecv.computeIfAbsent(echo.getReceiverId(),
+                                    k -> new BitSet(getPacketCount()));
+                            receiverHeardAt.put(echo.getReceiverId(), showCount);
+                            if (echo.hasResumed()) {
+                                // the decoder had some of it already
+                                recv.or(receivedPackets(echo.getResumed(), getPacketCount()));
+                            }
+                            // wait until every receiver has seen the Start
+                            if (receiverRecv.size() >= receivers) {
+                                state = State.DISP_DATA;
+                                updateLikelyRecv();
+                            }
+                        } else {
+                            // decoder doesn't know what we asked for, restart
+                            // with what all decoders know
+                            configure(PayloadFormat.BASE64, Compression.NONE, false, 1, false, SymbolCodecs.qrCode());
+                        }
                     }
                     break;
                 case DISP_DATA:
@@ -150,11 +594,23 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
                 case DISP_END:
                     if (msg.hasEnd() && msg.getSequence() == 1) {
                         state = State.TERMINATED;
+                        if (preEncoder != null) {
+                            preEncoder.shutdownNow();
+                        }
+                        listener.transferCompleted(source.size(), transferTime.elapsed(TimeUnit.NANOSECONDS));
                     }
                     if (msg.hasRequest()) {
-                        processRequestMsg(msg);
-                        if (likelyRecv.cardinality() < getPacketCount()) {
-                            state = State.DISP_DATA;
+                        BitSet recv = processRequestMsg(msg);
+                        if (recv != null) {
+                            // show again what the receiver still misses. A
+                            // late Request can't take back what a newer one
+                            // acknowledged
+                            BitSet missing = missingPackets(msg.getRequest());
+                            missing.andNot(recv);
+                            lost.or(missing);
+                            if (likelyRecv.cardinality() < getPacketCount()) {
+                                state = State.DISP_DATA;
+                            }
                         }
                     }
                     break;
@@ -170,10 +626,239 @@ public class StandardPhosphrEncoder implements PhosphrEncoder {
         }
     }
 
-    private void processRequestMsg(PhosphrMessage msg) {
-        Request req = msg.getRequest();
-        likelyRecv.set(0, getPacketCount());
-        req.getMissedPacketsList().forEach(likelyRecv::clear);
+    private boolean isCurrentStart(Start start) {
+        return start.getPacketCount() == getPacketCount() && start.getPacketSize() == packetSize;
+    }
+
+    private BitSet receivedPackets(Request req) {
+        if (req.hasSelectiveAck()) {
+            return receivedPackets(req.getSelectiveAck(), getPacketCount());
+        }
+        BitSet received = new BitSet(getPacketCount());
+        received.set(0, getPacketCount());
+        req.getMissedPacketsList().forEach(received::clear);
+        return received;
+    }
+
+    @VisibleForTesting
+    static BitSet receivedPackets(SelectiveAck sack, int packetCount) {
+        BitSet received = new BitSet(packetCount);
+        int first = Math.min(sack.getFirstMissing(), packetCount);
+        received.set(0, first);
+        BitSet window = BitSet.valueOf(sack.getReceived().asReadOnlyByteBuffer());
+        for (int i = window.nextSetBit(0); i >= 0 && first + i < packetCount; i = window.nextSetBit(i + 1)) {
+            received.set(first + i);
+        }
+        return received;
+    }
+
+    // the packets a request says are missing, ones it doesn't mention may be
+    // either
+    private BitSet missingPackets(Request req) {
+        BitSet missing = new BitSet(getPacketCount());
+        if (!req.hasSelectiveAck()) {
+            req.getMissedPacketsList().stream()
+                    .filter(seq -> seq >= 0 && seq < getPacketCount())
+                    .forEach(missing::set);
+            return missing;
+        }
+        SelectiveAck sack = req.getSelectiveAck();
+        int first = sack.getFirstMissing();
+        if (first >= getPacketCount()) {
+            return missing;
+        }
+        BitSet window = BitSet.valueOf(sack.getReceived().asReadOnlyByteBuffer());
+        // the first missing one, and the gaps up to the last received one
+        missing.set(first, Math.max(first + 1, Math.min(first + window.length(), getPacketCount())));
+        missing.andNot(receivedPackets(sack, getPacketCount()));
+        return missing;
+    }
+
+    // the received packets of the receiver that sent a request, or null if
+    // it isn't one of ours
+    private BitSet receiverFor(Request req) {
+        long id = req.getReceiverId();
+        BitSet recv = receiverRecv.get(id);
+        if (recv == null && receivers == 1) {
+            // only one can watch, so this is the same decoder restarted. It
+            // may have lost anything shown so far, what it still has is
+            // taken out of lost with its request
+            receiverRecv.clear();
+            receiverHeardAt.clear();
+            recv = new BitSet(getPacketCount());
+            receiverRecv.put(id, recv);
+            inFlight.clear();
+            lost.set(0, nextNew);
+        }
+        if (recv != null) {
+            receiverHeardAt.put(id, showCount);
+        }
+        dropSilentReceivers();
+        if (recv == null && receiverRecv.size() < receivers) {
+            // in place of one that left, or the same one restarted. Data
+            // in flight are still shown for the others, everything else it
+            // lacks is lost once its request is counted
+            recv = new BitSet(getPacketCount());
+            receiverRecv.put(id, recv);
+            receiverHeardAt.put(id, showCount);
+            lost.set(0, nextNew);
+            for (int seq : inFlight) {
+                lost.clear(seq, seq + dataPackets[seq]);
+            }
+        }
+        return recv;
+    }
+
+    // a receiver that stays silent while others reply has left, or restarted
+    // with a new id. If it was only slow, its next request adds it back
+    private void dropSilentReceivers() {
+        int lastHeard = receiverHeardAt.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+        if (receiverHeardAt.values().removeIf(heardAt -> lastHeard - heardAt > RECEIVER_TIMEOUT)) {
+            receiverRecv.keySet().retainAll(receiverHeardAt.keySet());
+            updateLikelyRecv();
+            lost.andNot(likelyRecv);
+        }
+    }
+
+    private void updateLikelyRecv() {
+        likelyRecv = null;
+        for (BitSet recv : receiverRecv.values()) {
+            if (likelyRecv == null) {
+                likelyRecv = (BitSet) recv.clone();
+            } else {
+                likelyRecv.and(recv);
+            }
+        }
+        if (likelyRecv == null) {
+            likelyRecv = new BitSet(getPacketCount());
+        }
+    }
+
+    // the start of the lost run the most receivers still need, the first
+    // one if it's a tie
+    private int mostNeededLost() {
+        int next = lost.nextSetBit(0);
+        if (receiverRecv.size() <= 1) {
+            return next;
+        }
+        int mostNeeded = 0;
+        for (int seq = next; seq >= 0; seq = lost.nextSetBit(lost.nextClearBit(seq))) {
+            int needed = 0;
+            for (BitSet recv : receiverRecv.values()) {
+                if (recv.nextClearBit(seq) < lost.nextClearBit(seq)) {
+                    needed++;
+                }
+            }
+            if (needed > mostNeeded) {
+                mostNeeded = needed;
+                next = seq;
+            }
+        }
+        return next;
+    }
+
+    private BitSet processRequestMsg(PhosphrMessage msg) {
+        BitSet recv = receiverFor(msg.getRequest());
+        if (recv == null) {
+            // not watching this session
+            return null;
+        }
+        recv.or(receivedPackets(msg.getRequest()));
+        updateLikelyRecv();
+
+        // images are captured in the order they are shown, so a Data last
+        // shown before one that was received is lost rather than still in
+        // flight. The received one may have been read from its first showing
+        int lastAcked = -1;
+        int acked = 0;
+        for (Iterator<Integer> iter = inFlight.iterator(); iter.hasNext();) {
+            int seq = iter.next();
+            int end = seq + dataPackets[seq];
+            if (likelyRecv.nextClearBit(seq) >= end) {
+                lastAcked = Math.max(lastAcked, firstShownAt[seq]);
+                acked++;
+                iter.remove();
+                if (paced && shownNanos[seq] >= 0) {
+                    updateRoundTrip(frameNanos - shownNanos[seq]);
+                }
+            }
+        }
+        int lostCount = 0;
+        int lastLost = -1;
+        for (Iterator<Integer> iter = inFlight.iterator(); iter.hasNext();) {
+            int seq = iter.next();
+            if (shownAt[seq] < lastAcked) {
+                lost.set(seq, seq + dataPackets[seq]);
+                lostCount++;
+                lastLost = Math.max(lastLost, shownAt[seq]);
+                iter.remove();
+            }
+        }
+        lost.andNot(likelyRecv);
+        if (layouts.size() > 1) {
+            updateLayout(acked, lostCount);
+        }
+        if (paced) {
+            updateFrameRate(acked, lostCount, lastLost);
+        }
+        return recv;
+    }
+
+    private void updateRoundTrip(long sample) {
+        roundTripNanos = roundTripNanos == 0 ? sample : 0.875 * roundTripNanos + 0.125 * sample;
+    }
+
+    // raise by about a frame per second each round trip, cut once for each
+    // burst of losses. A few are the camera missing frames, more than that
+    // and the receiver can't keep up
+    private void updateFrameRate(int acked, int lostCount, int lastLost) {
+        if (acked + lostCount > 0) {
+            paceLoss = 0.8 * paceLoss + 0.2 * lostCount / (acked + lostCount);
+        }
+        if (paceLoss > RAISE_LOSS && lastLost > lastCut) {
+            frameRate = Math.max(MIN_FRAME_RATE, frameRate * FRAME_RATE_CUT);
+            lastCut = showCount - 1;
+        } else if (acked > 0) {
+            double step = lastCut < 0 ? frameRate : 1;
+            frameRate = Math.min(maxFrameRate, frameRate + step * acked / getWindow());
+        }
+    }
+
+    // the Data that may be in flight
+    private int getWindow() {
+        if (!paced) {
+            return windowSize;
+        }
+        if (roundTripNanos == 0) {
+            return Math.min(windowSize, INITIAL_WINDOW);
+        }
+        // enough to keep showing new Data until the first is acknowledged
+        double perFrame = symbolsPerFrame * (colorPlanes ? MsgHelper.PLANES : 1);
+        int window = (int) Math.ceil(frameRate * roundTripNanos / 1e9 * perFrame) + 1;
+        return Math.max(1, Math.min(windowSize, window));
+    }
+
+    private void updateLayout(int acked, int lostCount) {
+        int samples = acked + lostCount;
+        if (samples == 0) {
+            return;
+        }
+        lossRate = 0.8 * lossRate + 0.2 * lostCount / samples;
+        layoutSamples += samples;
+        if (layoutSamples < MIN_LAYOUT_SAMPLES) {
+            return;
+        }
+        if (lossRate > RAISE_LOSS && layout < layouts.size() - 1) {
+            layout++;
+        } else if (lossRate < LOWER_LOSS && layout > 0) {
+            layout--;
+        } else {
+            return;
+        }
+        listener.layoutChanged(layouts.get(layout).getEcLevel(), layouts.get(layout).getPackets());
+        // judge the new layout on its own
+        layoutSamples = 0;
+        lossRate = (RAISE_LOSS + LOWER_LOSS) / 2;
     }
 
 }
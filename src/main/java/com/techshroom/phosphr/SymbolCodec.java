@@ -0,0 +1,65 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ReaderException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Symbology;
+
+/**
+ * Turns bytes into one kind of 2D symbol and back. The encoder and decoder
+ * agree on one in the handshake, see {@link SymbolCodecs} for the ones they
+ * know.
+ */
+public interface SymbolCodec {
+
+    Symbology getSymbology();
+
+    /**
+     * The most bytes the largest symbol holds at an error correction level.
+     * Symbologies with fixed error correction give the same for every level.
+     */
+    int getCapacity(ErrorCorrectionLevel ecLevel);
+
+    /**
+     * Encode bytes into the smallest symbol that holds them, without a quiet
+     * zone.
+     * 
+     * @throws IllegalArgumentException
+     *             if they don't fit in one symbol
+     */
+    ByteMatrix encode(byte[] data, ErrorCorrectionLevel ecLevel);
+
+    /**
+     * Read the bytes of a symbol in a captured image.
+     * 
+     * @throws ReaderException
+     *             if no symbol could be read
+     */
+    byte[] decode(BinaryBitmap image) throws ReaderException;
+
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.Dimension;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.WriterException;
+import com.google.zxing.aztec.AztecReader;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.datamatrix.DataMatrixReader;
+import com.google.zxing.datamatrix.DataMatrixWriter;
+import com.google.zxing.datamatrix.encoder.SymbolShapeHint;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.techshroom.protos.Symbology;
+
+/**
+ * The {@link SymbolCodec} for each {@link Symbology}.
+ */
+public final class SymbolCodecs {
+
+    private static final SymbolCodec QR_CODE = new QrCodeCodec();
+    private static final SymbolCodec DATA_MATRIX = new DataMatrixCodec();
+    private static final SymbolCodec AZTEC = new AztecCodec();
+
+    /**
+     * QR codes, the default. The most capacity, and the only one that can
+     * be tiled several to a frame, or followed between frames, see
+     * {@link SymbolTracker}.
+     */
+    public static SymbolCodec qrCode() {
+        return QR_CODE;
+    }
+
+    /**
+     * Square Data Matrix symbols. Error correction is fixed at about a
+     * quarter of the symbol. The reader needs modules at least three pixels
+     * wide.
+     */
+    public static SymbolCodec dataMatrix() {
+        return DATA_MATRIX;
+    }
+
+    /**
+     * Aztec symbols, found from their center, so they need no quiet zone.
+     */
+    public static SymbolCodec aztec() {
+        return AZTEC;
+    }
+
+    public static SymbolCodec forSymbology(Symbology symbology) {
+        switch (symbology) {
+            case QR_CODE:
+                return QR_CODE;
+            case DATA_MATRIX:
+                return DATA_MATRIX;
+            case AZTEC:
+                return AZTEC;
+            default:
+                throw new IllegalArgumentException("Unknown symbology: " + symbology);
+        }
+    }
+
+    private static ByteMatrix toByteMatrix(BitMatrix bits) {
+        ByteMatrix matrix = new ByteMatrix(bits.getWidth(), bits.getHeight());
+        for (int y = 0; y < bits.getHeight(); y++) {
+            for (int x = 0; x < bits.getWidth(); x++) {
+                matrix.set(x, y, bits.get(x, y));
+            }
+        }
+        return matrix;
+    }
+
+    // readers that don't keep byte segments give each byte as an ISO-8859-1
+    // char
+    private static byte[] textBytes(Result result) {
+        return result.getText().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class QrCodeCodec implements SymbolCodec {
+
+        // byte mode capacity of a version 40 symbol, by error correction level
+        private static final int[] V40_CAPACITY = { 2953, 2331, 1663, 1273 };
+
+        @Override
+        public Symbology getSymbology() {
+            return Symbology.QR_CODE;
+        }
+
+        @Override
+        public int getCapacity(ErrorCorrectionLevel ecLevel) {
+            return V40_CAPACITY[ecLevel.ordinal()];
+        }
+
+        @Override
+        public ByteMatrix encode(byte[] data, ErrorCorrectionLevel ecLevel) {
+            try {
+                return Encoder.encode(new String(data, StandardCharsets.ISO_8859_1), ecLevel, MsgHelper.ENCODE_HINTS)
+                        .getMatrix();
+            } catch (WriterException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        @Override
+        public byte[] decode(BinaryBitmap image) throws ReaderException {
+            return MsgHelper.rawBytes(MsgHelper.readQrCode(image));
+        }
+
+    }
+
+    private static final class DataMatrixCodec implements SymbolCodec {
+
+        // 132x132, ZXing 3.3 misreads the interleaving of 144x144 symbols.
+        // Binary takes two bytes of its 1304 for the length
+        private static final int MAX_SIZE = 132;
+        private static final int CAPACITY = 1302;
+        // deprecated without a replacement, the encoder still honors it
+        @SuppressWarnings("deprecation")
+        private static final Map<EncodeHintType, Object> ENCODE_HINTS = ImmutableMap.of(
+                EncodeHintType.DATA_MATRIX_SHAPE, SymbolShapeHint.FORCE_SQUARE,
+                EncodeHintType.MAX_SIZE, new Dimension(MAX_SIZE, MAX_SIZE));
+
+        @Override
+        public Symbology getSymbology() {
+            return Symbology.DATA_MATRIX;
+        }
+
+        @Override
+        public int getCapacity(ErrorCorrectionLevel ecLevel) {
+            return CAPACITY;
+        }
+
+        @Override
+        public ByteMatrix encode(byte[] data, ErrorCorrectionLevel ecLevel) {
+            return toByteMatrix(new DataMatrixWriter().encode(new String(data, StandardCharsets.ISO_8859_1),
+                    BarcodeFormat.DATA_MATRIX, 0, 0, ENCODE_HINTS));
+        }
+
+        @Override
+        public byte[] decode(BinaryBitmap image) throws ReaderException {
+            return textBytes(new DataMatrixReader().decode(image, MsgHelper.DECODE_HINTS));
+        }
+
+    }
+
+    private static final class AztecCodec implements SymbolCodec {
+
+        // the least error correction, as a percentage of the symbol, by
+        // error correction level. 23 is the smallest the spec recommends
+        private static final int[] EC_PERCENT = { 23, 33, 50, 66 };
+        // binary capacity of a 32 layer symbol at each
+        private static final int[] CAPACITY = { 1885, 1752, 1565, 1422 };
+
+        @Override
+        public Symbology getSymbology() {
+            return Symbology.AZTEC;
+        }
+
+        @Override
+        public int getCapacity(ErrorCorrectionLevel ecLevel) {
+            return CAPACITY[ecLevel.ordinal()];
+        }
+
+        @Override
+        public ByteMatrix encode(byte[] data, ErrorCorrectionLevel ecLevel) {
+            // as many layers as it takes
+            return toByteMatrix(com.google.zxing.aztec.encoder.Encoder
+                    .encode(data, EC_PERCENT[ecLevel.ordinal()], 0)
+                    .getMatrix());
+        }
+
+        @Override
+        public byte[] decode(BinaryBitmap image) throws ReaderException {
+            return textBytes(new AztecReader().decode(image, MsgHelper.DECODE_HINTS));
+        }
+
+    }
+
+    private SymbolCodecs() {
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import com.google.common.base.Throwables;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.FormatException;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.DetectorResult;
+import com.google.zxing.qrcode.decoder.Decoder;
+import com.google.zxing.qrcode.detector.Detector;
+import com.google.zxing.qrcode.detector.FinderPattern;
+import com.google.zxing.qrcode.detector.FinderPatternInfo;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * Reads single symbols from a series of frames, like
+ * {@link MsgHelper#decode(BinaryBitmap)}, but remembers where the last one
+ * was. The symbol barely moves between frames, so the next frame is first
+ * cropped to that region, and only the region is binarized. The finder
+ * patterns found there are tried again before searching the region, and the
+ * whole frame is only searched when both fail.
+ * 
+ * <p>
+ * Safe to call from several threads at once, though they may replace each
+ * other's regions.
+ * </p>
+ */
+public final class SymbolTracker {
+
+    // modules around the finder pattern centers: half a finder pattern, the
+    // quiet zone, and room to move
+    private static final float MARGIN_MODULES = 3.5f + 4 + 8;
+
+    /**
+     * Where the last symbol was, in frame coordinates, and its finder
+     * patterns in region coordinates if they are known.
+     */
+    private static final class Region {
+
+        private final int frameWidth;
+        private final int frameHeight;
+        private final int left;
+        private final int top;
+        private final int width;
+        private final int height;
+        private final FinderPatternInfo finders;
+
+        Region(int frameWidth, int frameHeight, int left, int top, int width, int height,
+                FinderPatternInfo finders) {
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.finders = finders;
+        }
+
+        Region withFinders(FinderPatternInfo finders) {
+            return new Region(frameWidth, frameHeight, left, top, width, height, finders);
+        }
+
+    }
+
+    /**
+     * Samples the grid from known finder patterns, skipping the search.
+     */
+    private static final class KnownFinderDetector extends Detector {
+
+        KnownFinderDetector(BitMatrix image) {
+            super(image);
+        }
+
+        DetectorResult detect(FinderPatternInfo finders) throws NotFoundException, FormatException {
+            return processFinderPatternInfo(finders);
+        }
+
+    }
+
+    private volatile Region region;
+
+    /**
+     * Read the symbol in a frame.
+     * 
+     * @throws RuntimeException
+     *             with a {@link ReaderException} cause if there is no symbol
+     *             to read
+     */
+    public PhosphrMessage decode(BinaryBitmap image) {
+        Region last = region;
+        if (last != null && last.frameWidth == image.getWidth() && last.frameHeight == image.getHeight()) {
+            try {
+                return decodeRegion(image, last);
+            } catch (ReaderException e) {
+                // moved or gone, look everywhere
+            }
+        }
+        Result result;
+        try {
+            result = MsgHelper.readQrCode(image);
+        } catch (Exception e) {
+            Throwables.throwIfUnchecked(e);
+            throw new RuntimeException(e);
+        }
+        if (image.isCropSupported()) {
+            region = regionAround(result.getResultPoints(), image.getWidth(), image.getHeight());
+        }
+        return MsgHelper.parse(result);
+    }
+
+    private PhosphrMessage decodeRegion(BinaryBitmap image, Region last) throws ReaderException {
+        BitMatrix bits = image.crop(last.left, last.top, last.width, last.height).getBlackMatrix();
+        Decoder decoder = new Decoder();
+        if (last.finders != null) {
+            try {
+                DetectorResult known = new KnownFinderDetector(bits).detect(last.finders);
+                return MsgHelper.parse(decoder.decode(known.getBits(), MsgHelper.DECODE_HINTS));
+            } catch (ReaderException e) {
+                // search the region
+            }
+        }
+        DetectorResult found = new Detector(bits).detect(MsgHelper.DECODE_HINTS);
+        PhosphrMessage msg = MsgHelper.parse(decoder.decode(found.getBits(), MsgHelper.DECODE_HINTS));
+        FinderPatternInfo finders = findersOf(found.getPoints());
+        if (finders != null) {
+            region = last.withFinders(finders);
+        }
+        return msg;
+    }
+
+    // the detector gives bottom left, top left and top right first
+    private static FinderPatternInfo findersOf(ResultPoint[] points) {
+        if (points.length < 3) {
+            return null;
+        }
+        FinderPattern[] finders = new FinderPattern[3];
+        for (int i = 0; i < finders.length; i++) {
+            if (!(points[i] instanceof FinderPattern)) {
+                return null;
+            }
+            finders[i] = (FinderPattern) points[i];
+        }
+        return new FinderPatternInfo(finders);
+    }
+
+    private static Region regionAround(ResultPoint[] points, int frameWidth, int frameHeight) {
+        float moduleSize = points.length > 0 && points[0] instanceof FinderPattern
+                ? ((FinderPattern) points[0]).getEstimatedModuleSize()
+                : 1;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = 0;
+        float maxY = 0;
+        for (ResultPoint point : points) {
+            minX = Math.min(minX, point.getX());
+            minY = Math.min(minY, point.getY());
+            maxX = Math.max(maxX, point.getX());
+            maxY = Math.max(maxY, point.getY());
+        }
+        float margin = moduleSize * MARGIN_MODULES;
+        int left = Math.max(0, (int) (minX - margin));
+        int top = Math.max(0, (int) (minY - margin));
+        int right = Math.min(frameWidth, (int) Math.ceil(maxX + margin));
+        int bottom = Math.min(frameHeight, (int) Math.ceil(maxY + margin));
+        return new Region(frameWidth, frameHeight, left, top, right - left, bottom - top, null);
+    }
+
+}
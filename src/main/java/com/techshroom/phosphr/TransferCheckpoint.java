@@ -0,0 +1,221 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Optional;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.techshroom.protos.CheckpointRecord;
+import com.techshroom.protos.Start;
+
+/**
+ * A file that records which packets of a transfer a
+ * {@link StandardPhosphrDecoder} has written to its sink, so a new decoder
+ * can carry on from there after a crash. The sink must keep its data too,
+ * see {@link DecoderSink#resume(long)}.
+ * 
+ * <p>
+ * The file is a log, appended to every few packets after flushing the sink.
+ * Packets received since the last append are asked for again after a
+ * resume. Only transfers with a content hash, and without compression, are
+ * recorded.
+ * </p>
+ */
+public final class TransferCheckpoint implements Closeable {
+
+    /**
+     * The default number of packets between appends.
+     */
+    public static final int DEFAULT_INTERVAL = 64;
+
+    /**
+     * Open or create a checkpoint file, appending every
+     * {@link #DEFAULT_INTERVAL} packets.
+     */
+    public static TransferCheckpoint open(Path file) throws IOException {
+        return open(file, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Open or create a checkpoint file.
+     * 
+     * @param interval
+     *            - the number of packets between appends
+     */
+    public static TransferCheckpoint open(Path file, int interval) throws IOException {
+        checkArgument(interval >= 1, "interval must be at least 1, got %s", interval);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            TransferCheckpoint checkpoint = new TransferCheckpoint(channel, interval);
+            checkpoint.load();
+            return checkpoint;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private final FileChannel channel;
+    private final int interval;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingPackets;
+    private Start start;
+    private BitSet received = new BitSet();
+    private long end;
+
+    private TransferCheckpoint(FileChannel channel, int interval) {
+        this.channel = channel;
+        this.interval = interval;
+    }
+
+    // reads back every whole record, a torn one at the end is dropped
+    private void load() throws IOException {
+        long valid = 0;
+        InputStream in = Channels.newInputStream(channel.position(0));
+        while (true) {
+            CheckpointRecord record;
+            try {
+                record = CheckpointRecord.parseDelimitedFrom(in);
+            } catch (InvalidProtocolBufferException e) {
+                break;
+            }
+            if (record == null) {
+                break;
+            }
+            if (valid == 0) {
+                if (!record.hasStart()) {
+                    break;
+                }
+                start = record.getStart();
+            } else {
+                received.set(record.getFirst(), record.getFirst() + record.getCount());
+                end = Math.max(end, record.getEnd());
+            }
+            valid += CodedOutputStream.computeUInt32SizeNoTag(record.getSerializedSize())
+                    + record.getSerializedSize();
+        }
+        channel.truncate(valid);
+        channel.position(valid);
+    }
+
+    /**
+     * The transfer that was being recorded, if any.
+     */
+    synchronized Optional<Start> getStart() {
+        return Optional.ofNullable(start);
+    }
+
+    /**
+     * The packets recorded for {@link #getStart()}, when loaded and since.
+     * Those not appended yet are only known until the checkpoint is closed.
+     */
+    synchronized BitSet getReceived() {
+        return (BitSet) received.clone();
+    }
+
+    /**
+     * The end of the recorded data furthest into the transfer, like
+     * {@link #getReceived()}.
+     */
+    synchronized long getEnd() {
+        return end;
+    }
+
+    /**
+     * Start recording a new transfer, dropping the old one.
+     */
+    synchronized void begin(Start start) throws IOException {
+        clear();
+        this.start = start;
+        CheckpointRecord.newBuilder().setStart(start).build().writeDelimitedTo(pending);
+        append();
+    }
+
+    /**
+     * Record a Data written to the sink. The sink is flushed before the
+     * record is appended.
+     */
+    synchronized void received(int first, int count, long end, DecoderSink sink) throws IOException {
+        if (start == null) {
+            return;
+        }
+        CheckpointRecord.newBuilder()
+                .setFirst(first)
+                .setCount(count)
+                .setEnd(end)
+                .build()
+                .writeDelimitedTo(pending);
+        received.set(first, first + count);
+        this.end = Math.max(this.end, end);
+        pendingPackets += count;
+        if (pendingPackets >= interval) {
+            sink.flush();
+            append();
+        }
+    }
+
+    /**
+     * Forget the transfer, when it is done or can't be resumed.
+     */
+    synchronized void clear() throws IOException {
+        start = null;
+        received = new BitSet();
+        end = 0;
+        pending.reset();
+        pendingPackets = 0;
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    private void append() throws IOException {
+        ByteBuffer records = ByteBuffer.wrap(pending.toByteArray());
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+        channel.force(false);
+        pending.reset();
+        pendingPackets = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.bytedeco.javacpp.opencv_imgproc.ADAPTIVE_THRESH_MEAN_C;
+import static org.bytedeco.javacpp.opencv_imgproc.THRESH_BINARY;
+import static org.bytedeco.javacpp.opencv_imgproc.adaptiveThreshold;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.avutil;
+import org.bytedeco.javacpp.opencv_core.Mat;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.OpenCVFrameConverter;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+
+/**
+ * Reads a recorded transfer from a video file, such as one made by a
+ * {@link VideoFileEncoder} or a camera. Frames are thresholded by OpenCV, and
+ * the decoder only has to pick up the black pixels. Replies are dropped, a
+ * recording can't hear them.
+ */
+public final class VideoFileDecoder {
+
+    /**
+     * The default threshold neighborhood, in pixels. A few modules at the
+     * default scale.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 31;
+    /**
+     * The default amount a pixel must be below the neighborhood mean to be
+     * black.
+     */
+    public static final double DEFAULT_OFFSET = 10;
+
+    /**
+     * Reads pixels already thresholded to 0 or 255.
+     */
+    private static final class ThresholdedBinarizer extends Binarizer {
+
+        private byte[] row;
+
+        ThresholdedBinarizer(LuminanceSource source) {
+            super(source);
+        }
+
+        @Override
+        public BitArray getBlackRow(int y, BitArray bits) {
+            int width = getWidth();
+            if (bits == null || bits.getSize() < width) {
+                bits = new BitArray(width);
+            } else {
+                bits.clear();
+            }
+            row = getLuminanceSource().getRow(y, row);
+            for (int x = 0; x < width; x++) {
+                if (row[x] == 0) {
+                    bits.set(x);
+                }
+            }
+            return bits;
+        }
+
+        @Override
+        public BitMatrix getBlackMatrix() {
+            int width = getWidth();
+            int height = getHeight();
+            byte[] luminance = getLuminanceSource().getMatrix();
+            BitMatrix bits = new BitMatrix(width, height);
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    if (luminance[offset + x] == 0) {
+                        bits.set(x, y);
+                    }
+                }
+            }
+            return bits;
+        }
+
+        @Override
+        public Binarizer createBinarizer(LuminanceSource source) {
+            return new ThresholdedBinarizer(source);
+        }
+
+    }
+
+    private final File file;
+    private final int blockSize;
+    private final double offset;
+
+    public VideoFileDecoder(File file) {
+        this(file, DEFAULT_BLOCK_SIZE, DEFAULT_OFFSET);
+    }
+
+    /**
+     * @param blockSize
+     *            - the width of the neighborhood each pixel is compared with,
+     *            odd
+     * @param offset
+     *            - how far below the neighborhood mean a black pixel is
+     */
+    public VideoFileDecoder(File file, int blockSize, double offset) {
+        checkArgument(blockSize >= 3 && blockSize % 2 == 1, "block size must be odd and at least 3, got %s",
+                blockSize);
+        this.file = file;
+        this.blockSize = blockSize;
+        this.offset = offset;
+    }
+
+    /**
+     * Give each frame to the decoder until it has the data or the video ends.
+     * 
+     * @return the number of frames read
+     */
+    public long decode(PhosphrDecoder decoder) throws IOException {
+        OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file);
+                Mat binary = new Mat()) {
+            grabber.setPixelFormat(avutil.AV_PIX_FMT_GRAY8);
+            grabber.start();
+            byte[] luminance = null;
+            long frames = 0;
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null) {
+                adaptiveThreshold(converter.convert(frame), binary, 255, ADAPTIVE_THRESH_MEAN_C, THRESH_BINARY,
+                        blockSize, offset);
+                int width = binary.cols();
+                int height = binary.rows();
+                if (luminance == null || luminance.length != width * height) {
+                    luminance = new byte[width * height];
+                }
+                copy(binary, luminance, width, height);
+                frames++;
+                // the decoder is done with the frame before the next one
+                decoder.consumeImage(new BinaryBitmap(new ThresholdedBinarizer(
+                        new PlanarYUVLuminanceSource(luminance, width, height, 0, 0, width, height, false))));
+                if (decoder.getResult().isPresent()) {
+                    break;
+                }
+            }
+            grabber.stop();
+            return frames;
+        }
+    }
+
+    private static void copy(Mat image, byte[] luminance, int width, int height) {
+        BytePointer data = image.data();
+        if (image.isContinuous()) {
+            data.get(luminance, 0, width * height);
+            return;
+        }
+        long step = image.step();
+        for (int y = 0; y < height; y++) {
+            data.position(y * step).get(luminance, y * width, width);
+        }
+        data.position(0);
+    }
+
+}
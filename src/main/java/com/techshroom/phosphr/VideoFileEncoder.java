@@ -0,0 +1,144 @@
+/*
+ * This file is part of phosphr-optics, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) TechShroom Studios <https://techshroom.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Records a one-way transfer to a video file, for reading back later with a
+ * {@link VideoFileDecoder}. The encoder never gets replies, so this is meant
+ * for {@link FountainPhosphrEncoder}.
+ * 
+ * <p>
+ * Frames are grayscale, with each symbol centered on a canvas that fits a
+ * version 40 symbol. The default codec is FFV1, which is lossless, so the file
+ * should be a container that takes it, like Matroska.
+ * </p>
+ */
+public final class VideoFileEncoder {
+
+    public static final int DEFAULT_SCALE = 4;
+    public static final double DEFAULT_FRAME_RATE = 30;
+
+    // modules in a version 40 symbol
+    private static final int MAX_SYMBOL_SIZE = 177;
+
+    private final File file;
+    private final FrameRenderer renderer;
+    private final double frameRate;
+    private final int framesPerSymbol;
+    private final int videoCodec;
+
+    public VideoFileEncoder(File file) {
+        this(file, DEFAULT_SCALE, DEFAULT_FRAME_RATE, 1, avcodec.AV_CODEC_ID_FFV1);
+    }
+
+    /**
+     * @param scale
+     *            - the width of a module, in pixels
+     * @param frameRate
+     *            - frames per second of the video
+     * @param framesPerSymbol
+     *            - the number of frames that show each symbol
+     * @param videoCodec
+     *            - an FFmpeg codec id, from {@link avcodec}, that can take
+     *            grayscale frames
+     */
+    public VideoFileEncoder(File file, int scale, double frameRate, int framesPerSymbol, int videoCodec) {
+        checkArgument(frameRate > 0, "frame rate must be positive, got %s", frameRate);
+        checkArgument(framesPerSymbol >= 1, "need at least one frame per symbol, got %s", framesPerSymbol);
+        this.file = file;
+        this.renderer = new FrameRenderer(scale);
+        this.frameRate = frameRate;
+        this.framesPerSymbol = framesPerSymbol;
+        this.videoCodec = videoCodec;
+    }
+
+    /**
+     * Record symbols until the encoder is done or {@code symbolLimit} have
+     * been recorded.
+     * 
+     * @return the number of symbols recorded
+     */
+    public int record(PhosphrEncoder encoder, int symbolLimit) throws IOException {
+        checkArgument(symbolLimit > 0, "symbol limit must be positive, got %s", symbolLimit);
+        int size = MAX_SYMBOL_SIZE;
+        // most codecs want an even width
+        if (renderer.getWidth(new ByteMatrix(size, size)) % 2 != 0) {
+            size++;
+        }
+        ByteMatrix canvas = new ByteMatrix(size, size);
+        int width = renderer.getWidth(canvas);
+        int height = renderer.getHeight(canvas);
+        byte[] luminance = new byte[width * height];
+        ByteBuffer image = ByteBuffer.allocateDirect(width * height);
+        try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(file, width, height)) {
+            recorder.setVideoCodec(videoCodec);
+            recorder.setPixelFormat(avutil.AV_PIX_FMT_GRAY8);
+            recorder.setFrameRate(frameRate);
+            recorder.start();
+            int symbols = 0;
+            while (!encoder.isDataSendCompleted() && symbols < symbolLimit) {
+                center(encoder.getNextImage(Collections.emptyIterator()), canvas);
+                renderer.render(canvas, luminance);
+                image.clear();
+                image.put(luminance).flip();
+                for (int i = 0; i < framesPerSymbol; i++) {
+                    recorder.recordImage(width, height, Frame.DEPTH_UBYTE, 1, width, avutil.AV_PIX_FMT_GRAY8, image);
+                }
+                symbols++;
+            }
+            recorder.stop();
+            return symbols;
+        }
+    }
+
+    private static void center(ByteMatrix symbol, ByteMatrix canvas) {
+        checkState(symbol.getWidth() <= canvas.getWidth() && symbol.getHeight() <= canvas.getHeight(),
+                "symbol of %sx%s modules does not fit the video", symbol.getWidth(), symbol.getHeight());
+        canvas.clear((byte) 0);
+        int left = (canvas.getWidth() - symbol.getWidth()) / 2;
+        int top = (canvas.getHeight() - symbol.getHeight()) / 2;
+        byte[][] rows = symbol.getArray();
+        byte[][] out = canvas.getArray();
+        for (int y = 0; y < rows.length; y++) {
+            System.arraycopy(rows[y], 0, out[top + y], left, rows[y].length);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.End;
+import com.techshroom.protos.PhosphrMessage;
+
+public class AckPolicyTest {
+
+    private static final int PACKET_SIZE = 4;
+    private static final int PACKETS = 100;
+
+    @Test
+    public void defaultsAnswerEveryData() {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.defaults());
+        assertEquals(list(0, 1, 3, 3), answered(decoder, 0, 1, 3, 3));
+    }
+
+    @Test
+    public void coalescesPackets() {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.builder().packets(3).ackGaps(false).build());
+        assertEquals(list(2, 5, 8), answered(decoder, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9));
+    }
+
+    @Test
+    public void copiesCount() {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.builder().packets(2).ackGaps(false).build());
+        // the window shown again while the encoder waits
+        assertEquals(list(0, 2), answered(decoder, 0, 0, 1, 2));
+    }
+
+    @Test
+    public void answersGapsRightAway() {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.builder().packets(10).build());
+        assertEquals(list(3, 9), answered(decoder, 0, 1, 3, 4, 5, 9, 2));
+    }
+
+    @Test
+    public void answersAfterMaxDelay() throws InterruptedException {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.builder()
+                .packets(10)
+                .ackGaps(false)
+                .maxDelay(20, TimeUnit.MILLISECONDS)
+                .build());
+        assertEquals(list(), answered(decoder, 0));
+        Thread.sleep(40);
+        assertEquals(list(1), answered(decoder, 1));
+        assertEquals(list(), answered(decoder, 2));
+    }
+
+    @Test
+    public void alwaysAnswersCompletionAndEnd() {
+        StandardPhosphrDecoder decoder = startedDecoder(AckPolicy.builder().packets(1000).ackGaps(false).build());
+        List<Integer> all = new ArrayList<>();
+        for (int seq = 0; seq < PACKETS - 1; seq++) {
+            all.add(seq);
+        }
+        assertEquals(list(), answered(decoder, all.stream().mapToInt(Integer::intValue).toArray()));
+        // End before everything arrived gets a Request
+        assertTrue(decoder.processMessage(PhosphrMessage.newBuilder()
+                .setEnd(End.getDefaultInstance())
+                .build(), false).get().hasRequest());
+        assertEquals(list(PACKETS - 1), answered(decoder, PACKETS - 1));
+        assertTrue(decoder.isFinished());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsAPacket() {
+        AckPolicy.builder().packets(0).build();
+    }
+
+    private static StandardPhosphrDecoder startedDecoder(AckPolicy policy) {
+        return Fixtures.startedDecoder(PACKETS, PACKET_SIZE, policy);
+    }
+
+    // the Data that got an answer
+    private static List<Integer> answered(StandardPhosphrDecoder decoder, int... seqs) {
+        List<Integer> answered = new ArrayList<>();
+        for (int seq : seqs) {
+            boolean reply = decoder.processMessage(PhosphrMessage.newBuilder()
+                    .setSequence(seq)
+                    .setData(Data.newBuilder().setContent(ByteString.copyFrom(new byte[PACKET_SIZE])))
+                    .build(), false).isPresent();
+            if (reply) {
+                answered.add(seq);
+            }
+        }
+        return answered;
+    }
+
+    private static List<Integer> list(int... values) {
+        List<Integer> list = new ArrayList<>();
+        for (int v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.PayloadFormat;
+
+/**
+ * Adaptive encoders moving along the {@link PacketLayout#ladder} as frames
+ * are lost.
+ */
+public class AdaptiveEncoderTest {
+
+    // 60 Data at the first layout
+    private static final byte[] DATA = randomData(60 * 11 * 256);
+    private static final List<PacketLayout> LADDER = PacketLayout.ladder(PayloadFormat.BINARY, 256,
+            SymbolCodecs.qrCode());
+    // the samples each layout is judged on
+    private static final int MIN_SAMPLES = 8;
+    // every other frame is lost until this one
+    private static final int LOSSES_END = 60;
+    private static final int MAX_FRAMES = 1000;
+
+    /**
+     * The layouts the encoder changed to, and what it had shown by then.
+     */
+    private static final class Run implements PhosphrListener {
+
+        private final List<String> layouts = new ArrayList<>();
+        // the frame of each change, and the Data shown and in flight before
+        private final List<Integer> changedAt = new ArrayList<>();
+        private final List<Integer> shownBefore = new ArrayList<>();
+        private final List<Integer> inFlightBefore = new ArrayList<>();
+        private int frame;
+        private int shown;
+        private int inFlight;
+
+        @Override
+        public void dataShown(int first, int count, boolean retransmission) {
+            shown++;
+        }
+
+        @Override
+        public void windowChanged(int inFlight) {
+            this.inFlight = inFlight;
+        }
+
+        @Override
+        public void layoutChanged(ErrorCorrectionLevel ecLevel, int packets) {
+            layouts.add(new PacketLayout(ecLevel, packets).toString());
+            changedAt.add(frame);
+            shownBefore.add(shown);
+            inFlightBefore.add(inFlight);
+        }
+
+    }
+
+    @Test
+    public void keepsTheLargestLayoutWithoutLosses() {
+        Run run = run(frame -> false);
+        assertEquals(0, run.layouts.size());
+    }
+
+    @Test
+    public void stepsUpWhileLossIsHighThenBackDown() {
+        Run run = run(frame -> frame < LOSSES_END && frame % 2 == 1);
+        int up = 0;
+        while (up < run.layouts.size() && run.changedAt.get(up) < LOSSES_END) {
+            assertEquals(LADDER.get(up + 1).toString(), run.layouts.get(up));
+            up++;
+        }
+        assertTrue(up >= 2);
+        // back to the largest layout once the losses stop
+        assertEquals(LADDER.get(0).toString(), run.layouts.get(run.layouts.size() - 1));
+    }
+
+    @Test
+    public void judgesEachLayoutOnItsOwnSamples() {
+        Run run = run(frame -> frame < LOSSES_END && frame % 2 == 1);
+        assertTrue(run.shownBefore.get(0) >= MIN_SAMPLES);
+        for (int i = 1; i < run.layouts.size(); i++) {
+            // each sample is a Data acknowledged or lost, shown since the last
+            // change or in flight then
+            int shownSince = run.shownBefore.get(i) - run.shownBefore.get(i - 1);
+            assertTrue(shownSince + run.inFlightBefore.get(i - 1) >= MIN_SAMPLES);
+        }
+    }
+
+    private static Run run(IntPredicate dropped) {
+        Run run = new Run();
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, EncoderSettings.builder()
+                .windowSize(8)
+                .adaptive(true)
+                .listener(run)
+                .build());
+        StandardPhosphrDecoder dec = new StandardPhosphrDecoder();
+        List<BinaryBitmap> replies = new ArrayList<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + MAX_FRAMES + " frames", frame < MAX_FRAMES);
+            run.frame = frame;
+            ByteMatrix next = enc.getNextImage(replies.iterator());
+            replies.clear();
+            if (!dropped.test(frame)) {
+                Optional<ByteMatrix> reply = dec.consumeImage(bitmap(next));
+                reply.ifPresent(r -> replies.add(bitmap(r)));
+            }
+        }
+        assertArrayEquals(DATA, dec.getResult().get());
+        return run;
+    }
+
+}
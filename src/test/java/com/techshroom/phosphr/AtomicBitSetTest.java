@@ -0,0 +1,95 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AtomicBitSetTest {
+
+    @Test
+    public void setCountsOnlyNewBits() {
+        AtomicBitSet bits = new AtomicBitSet(130);
+        assertTrue(bits.set(0));
+        assertTrue(bits.set(64));
+        assertTrue(bits.set(129));
+        assertFalse(bits.set(64));
+        assertEquals(3, bits.cardinality());
+        assertTrue(bits.get(129));
+        assertFalse(bits.get(128));
+    }
+
+    @Test
+    public void nextClearBitSkipsFullWords() {
+        AtomicBitSet bits = new AtomicBitSet(200);
+        for (int i = 0; i < 150; i++) {
+            bits.set(i);
+        }
+        assertEquals(150, bits.nextClearBit(0));
+        assertEquals(150, bits.nextClearBit(63));
+        assertEquals(160, bits.nextClearBit(160));
+        for (int i = 150; i < 200; i++) {
+            bits.set(i);
+        }
+        assertEquals(200, bits.nextClearBit(0));
+        assertEquals(200, bits.cardinality());
+    }
+
+    @Test
+    public void getIsRebased() {
+        AtomicBitSet bits = new AtomicBitSet(100);
+        bits.set(10);
+        bits.set(70);
+        bits.set(99);
+        BitSet expected = new BitSet();
+        expected.set(0);
+        expected.set(60);
+        assertEquals(expected, bits.get(10, 90));
+        assertEquals(new BitSet(), bits.get(11, 70));
+    }
+
+    @Test
+    public void racingSetsCountOnce() throws Exception {
+        int size = 10_000;
+        int threads = 4;
+        AtomicBitSet bits = new AtomicBitSet(size);
+        AtomicInteger setHere = new AtomicInteger();
+        CountDownLatch ready = new CountDownLatch(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                done.add(pool.submit(() -> {
+                    ready.countDown();
+                    ready.await();
+                    // every thread sets every bit
+                    for (int i = 0; i < size; i++) {
+                        if (bits.set(i)) {
+                            setHere.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(size, setHere.get());
+        assertEquals(size, bits.cardinality());
+        assertEquals(size, bits.nextClearBit(0));
+    }
+
+}
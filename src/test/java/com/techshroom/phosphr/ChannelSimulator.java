@@ -0,0 +1,447 @@
+package com.techshroom.phosphr;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.PhosphrMessage;
+
+/**
+ * A seedable model of the optical link, for comparing protocol modes without
+ * a camera. Frames are rendered, damaged, and captured at a rate that may
+ * differ from the display rate. Replies go back the same way, some frames
+ * later. The same seed gives the same run.
+ */
+public final class ChannelSimulator {
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private long seed;
+        private double dropRate;
+        private int blurRadius;
+        private double noise;
+        private int skew;
+        private double displayRate = 30;
+        private double captureRate = 30;
+        private int replyDelay;
+        private int scale = 2;
+        private int maxFrames = 10000;
+
+        private Builder() {
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * The chance that a capture is lost.
+         */
+        public Builder dropRate(double dropRate) {
+            this.dropRate = dropRate;
+            return this;
+        }
+
+        /**
+         * Box blur radius, in pixels.
+         */
+        public Builder blurRadius(int blurRadius) {
+            this.blurRadius = blurRadius;
+            return this;
+        }
+
+        /**
+         * Standard deviation of the noise added to each pixel, out of 255.
+         */
+        public Builder noise(double noise) {
+            this.noise = noise;
+            return this;
+        }
+
+        /**
+         * The most each corner of a frame moves, in pixels, for a keystone
+         * like skew.
+         */
+        public Builder skew(int skew) {
+            this.skew = skew;
+            return this;
+        }
+
+        public Builder displayRate(double displayRate) {
+            this.displayRate = displayRate;
+            return this;
+        }
+
+        public Builder captureRate(double captureRate) {
+            this.captureRate = captureRate;
+            return this;
+        }
+
+        /**
+         * The number of displayed frames, after the next one, before a reply
+         * reaches the encoder.
+         */
+        public Builder replyDelay(int replyDelay) {
+            this.replyDelay = replyDelay;
+            return this;
+        }
+
+        /**
+         * Pixels per module.
+         */
+        public Builder scale(int scale) {
+            this.scale = scale;
+            return this;
+        }
+
+        /**
+         * The number of displayed frames before giving up.
+         */
+        public Builder maxFrames(int maxFrames) {
+            this.maxFrames = maxFrames;
+            return this;
+        }
+
+        public ChannelSimulator build() {
+            checkArgument(dropRate >= 0 && dropRate < 1, "drop rate must be in [0, 1), got %s", dropRate);
+            checkArgument(blurRadius >= 0, "blur radius must not be negative, got %s", blurRadius);
+            checkArgument(noise >= 0, "noise must not be negative, got %s", noise);
+            checkArgument(skew >= 0, "skew must not be negative, got %s", skew);
+            checkArgument(displayRate > 0 && captureRate > 0, "rates must be positive");
+            checkArgument(replyDelay >= 0, "reply delay must not be negative, got %s", replyDelay);
+            checkArgument(scale >= 1, "scale must be at least 1, got %s", scale);
+            checkArgument(maxFrames >= 1, "max frames must be at least 1, got %s", maxFrames);
+            return new ChannelSimulator(this);
+        }
+
+    }
+
+    /**
+     * What happened in a run.
+     */
+    public static final class Report {
+
+        private final boolean completed;
+        private final int bytes;
+        private final int framesShown;
+        private final int framesRepeated;
+        private final int framesCaptured;
+        private final int framesToResult;
+        private final double displayRate;
+        private final long wallMillis;
+
+        private Report(boolean completed, int bytes, int framesShown, int framesRepeated, int framesCaptured,
+                int framesToResult, double displayRate, long wallMillis) {
+            this.completed = completed;
+            this.bytes = bytes;
+            this.framesShown = framesShown;
+            this.framesRepeated = framesRepeated;
+            this.framesCaptured = framesCaptured;
+            this.framesToResult = framesToResult;
+            this.displayRate = displayRate;
+            this.wallMillis = wallMillis;
+        }
+
+        /**
+         * Whether the decoder got the data before the frame limit.
+         */
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        public int getFramesShown() {
+            return framesShown;
+        }
+
+        public int getFramesCaptured() {
+            return framesCaptured;
+        }
+
+        /**
+         * Frames of Data shown again after being shown once, divided by the
+         * other frames shown. A Start or End shown until it is answered isn't
+         * counted.
+         */
+        public double getRetransmissionRatio() {
+            int distinct = framesShown - framesRepeated;
+            return distinct == 0 ? 0 : (double) framesRepeated / distinct;
+        }
+
+        /**
+         * Simulated seconds until the decoder had the data.
+         */
+        public double getTimeToComplete() {
+            return framesToResult / displayRate;
+        }
+
+        /**
+         * Bytes per simulated second.
+         */
+        public double getGoodput() {
+            return completed ? bytes / getTimeToComplete() : 0;
+        }
+
+        public long getWallMillis() {
+            return wallMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("completed=%s frames=%d captured=%d retransmit=%.2f time=%.2fs goodput=%.0fB/s wall=%dms",
+                    completed, framesShown, framesCaptured, getRetransmissionRatio(), getTimeToComplete(),
+                    getGoodput(), wallMillis);
+        }
+
+    }
+
+    private final Builder settings;
+    private final Random random;
+
+    private ChannelSimulator(Builder settings) {
+        this.settings = settings;
+        this.random = new Random(settings.seed);
+    }
+
+    /**
+     * Run a transfer until the encoder is done. One-way decoders never reply,
+     * so when there have been no replies the run ends as soon as the decoder
+     * has the data.
+     */
+    public Report run(PhosphrEncoder enc, PhosphrDecoder dec) {
+        long start = System.nanoTime();
+        Set<HashCode> seen = new HashSet<>();
+        Map<HashCode, Boolean> dataFrames = new HashMap<>();
+        // replies sent while each frame was shown, oldest first
+        Deque<List<BinaryBitmap>> replies = new ArrayDeque<>();
+        int shown = 0;
+        int repeated = 0;
+        int captured = 0;
+        int toResult = 0;
+        boolean replied = false;
+        Optional<byte[]> result = Optional.empty();
+        while (!enc.isDataSendCompleted() && shown < settings.maxFrames) {
+            List<BinaryBitmap> arrived = replies.size() > settings.replyDelay
+                    ? replies.removeFirst()
+                    : new ArrayList<>();
+            ByteMatrix frame = enc.getNextImage(arrived.iterator());
+            HashCode hash = Hashing.murmur3_128().hashBytes(flatten(frame));
+            if (!seen.add(hash) && dataFrames.computeIfAbsent(hash, h -> carriesData(frame))) {
+                repeated++;
+            }
+            List<BinaryBitmap> sent = new ArrayList<>();
+            for (int i = capturesOf(shown++); i > 0; i--) {
+                Optional<BinaryBitmap> capture = capture(frame);
+                if (!capture.isPresent()) {
+                    continue;
+                }
+                captured++;
+                Optional<ByteMatrix> reply = dec.consumeImage(capture.get());
+                if (reply.isPresent()) {
+                    replied = true;
+                    capture(reply.get()).ifPresent(sent::add);
+                }
+            }
+            replies.addLast(sent);
+            if (!result.isPresent()) {
+                result = dec.getResult();
+                toResult = shown;
+                if (result.isPresent() && !replied) {
+                    break;
+                }
+            }
+        }
+        return new Report(result.isPresent(), result.map(r -> r.length).orElse(0), shown, repeated, captured,
+                toResult, settings.displayRate, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // read from the frame as shown. One that can't be read, such as color
+    // planes, is taken to be Data
+    private boolean carriesData(ByteMatrix frame) {
+        List<PhosphrMessage> msgs;
+        try {
+            msgs = MsgHelper.decodeAll(new BinaryBitmap(new HybridBinarizer(
+                    new ByteMatrixLuminanceSource(frame, new FrameRenderer(settings.scale)))));
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof ReaderException) {
+                return true;
+            }
+            throw e;
+        }
+        return msgs.isEmpty() || msgs.stream().anyMatch(msg -> msg.hasData() || msg.hasFountainSymbol());
+    }
+
+    private static byte[] flatten(ByteMatrix frame) {
+        byte[][] rows = frame.getArray();
+        byte[] flat = new byte[frame.getWidth() * frame.getHeight()];
+        for (int y = 0; y < rows.length; y++) {
+            System.arraycopy(rows[y], 0, flat, y * frame.getWidth(), frame.getWidth());
+        }
+        return flat;
+    }
+
+    // the camera takes a picture at each multiple of its period
+    private int capturesOf(int frame) {
+        double ratio = settings.captureRate / settings.displayRate;
+        return (int) (Math.floor((frame + 1) * ratio) - Math.floor(frame * ratio));
+    }
+
+    private Optional<BinaryBitmap> capture(ByteMatrix frame) {
+        if (random.nextDouble() < settings.dropRate) {
+            return Optional.empty();
+        }
+        int border = 4 * settings.scale + settings.skew;
+        int width = frame.getWidth() * settings.scale + border * 2;
+        int height = frame.getHeight() * settings.scale + border * 2;
+        byte[] pixels = new byte[width * height];
+        Arrays.fill(pixels, (byte) 0xFF);
+        for (int y = 0; y < frame.getHeight() * settings.scale; y++) {
+            for (int x = 0; x < frame.getWidth() * settings.scale; x++) {
+                if (frame.get(x / settings.scale, y / settings.scale) == 1) {
+                    pixels[(y + border) * width + x + border] = 0;
+                }
+            }
+        }
+        if (settings.skew > 0) {
+            pixels = skew(pixels, width, height);
+        }
+        if (settings.blurRadius > 0) {
+            pixels = blur(pixels, width, height);
+        }
+        if (settings.noise > 0) {
+            for (int i = 0; i < pixels.length; i++) {
+                double value = (pixels[i] & 0xFF) + random.nextGaussian() * settings.noise;
+                pixels[i] = (byte) Math.max(0, Math.min(255, (int) Math.round(value)));
+            }
+        }
+        return Optional.of(new BinaryBitmap(new HybridBinarizer(
+                new PlanarYUVLuminanceSource(pixels, width, height, 0, 0, width, height, false))));
+    }
+
+    // moves each corner randomly, and samples the frame through the new quad
+    private byte[] skew(byte[] pixels, int width, int height) {
+        double[] dx = new double[4];
+        double[] dy = new double[4];
+        for (int i = 0; i < 4; i++) {
+            dx[i] = (random.nextDouble() * 2 - 1) * settings.skew;
+            dy[i] = (random.nextDouble() * 2 - 1) * settings.skew;
+        }
+        byte[] out = new byte[pixels.length];
+        for (int y = 0; y < height; y++) {
+            double v = (double) y / (height - 1);
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / (width - 1);
+                double sx = x + bilerp(dx, u, v);
+                double sy = y + bilerp(dy, u, v);
+                int ix = (int) Math.round(sx);
+                int iy = (int) Math.round(sy);
+                out[y * width + x] = ix >= 0 && iy >= 0 && ix < width && iy < height
+                        ? pixels[iy * width + ix]
+                        : (byte) 0xFF;
+            }
+        }
+        return out;
+    }
+
+    // corners in order top left, top right, bottom left, bottom right
+    private static double bilerp(double[] corners, double u, double v) {
+        double top = corners[0] + (corners[1] - corners[0]) * u;
+        double bottom = corners[2] + (corners[3] - corners[2]) * u;
+        return top + (bottom - top) * v;
+    }
+
+    private byte[] blur(byte[] pixels, int width, int height) {
+        int r = settings.blurRadius;
+        byte[] rows = new byte[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int k = Math.max(0, x - r); k <= Math.min(width - 1, x + r); k++) {
+                    sum += pixels[y * width + k] & 0xFF;
+                    count++;
+                }
+                rows[y * width + x] = (byte) (sum / count);
+            }
+        }
+        byte[] out = new byte[pixels.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int k = Math.max(0, y - r); k <= Math.min(height - 1, y + r); k++) {
+                    sum += rows[k * width + x] & 0xFF;
+                    count++;
+                }
+                out[y * width + x] = (byte) (sum / count);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Compares the protocol modes on one channel.
+     */
+    public static void main(String[] args) {
+        byte[] data = new byte[args.length > 0 ? Integer.parseInt(args[0]) : 16384];
+        new Random(1).nextBytes(data);
+        modes(data).forEach((name, enc) -> {
+            System.out.println(name + ": " + exampleChannel().build().run(enc.get(), decoderFor(name)));
+        });
+    }
+
+    // a camera a little slower than the display, losing some frames
+    static Builder exampleChannel() {
+        return builder()
+                .seed(42)
+                .dropRate(0.1)
+                .noise(8)
+                .skew(2)
+                .scale(3)
+                .displayRate(30)
+                .captureRate(25)
+                .replyDelay(3)
+                .maxFrames(2000);
+    }
+
+    static ImmutableMap<String, Supplier<PhosphrEncoder>> modes(byte[] data) {
+        return ImmutableMap.of(
+                "stop-and-wait", () -> StandardPhosphrEncoder.fromBytes(data),
+                "window 4", () -> StandardPhosphrEncoder.fromBytes(data, EncoderSettings.builder()
+                        .windowSize(4)
+                        .build()),
+                "window 8 adaptive", () -> StandardPhosphrEncoder.fromBytes(data, EncoderSettings.builder()
+                        .windowSize(8)
+                        .adaptive(true)
+                        .build()),
+                "fountain", () -> FountainPhosphrEncoder.fromBytes(data));
+    }
+
+    static PhosphrDecoder decoderFor(String mode) {
+        return mode.equals("fountain") ? new FountainPhosphrDecoder() : new StandardPhosphrDecoder();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Every mode of {@link ChannelSimulator#main(String[])} on its lossy channel.
+ * The runs are seeded, the bounds leave room for changes to the protocol.
+ */
+public class ChannelSimulatorTest {
+
+    private static final byte[] DATA = randomData(8192);
+    private static final Map<String, Integer> MAX_FRAMES = ImmutableMap.of(
+            "stop-and-wait", 48,
+            "window 4", 36,
+            "window 8 adaptive", 40,
+            "fountain", 12);
+
+    @Test
+    public void everyModeCompletes() {
+        ChannelSimulator.modes(DATA).forEach((name, enc) -> {
+            ChannelSimulator.Report report = run(name, enc);
+            assertTrue(name + " not completed: " + report, report.isCompleted());
+            assertTrue(name + " took too long: " + report, report.getFramesShown() <= MAX_FRAMES.get(name));
+        });
+    }
+
+    @Test
+    public void sameSeedSameRun() {
+        Supplier<PhosphrEncoder> enc = ChannelSimulator.modes(DATA).get("window 4");
+        ChannelSimulator.Report first = run("window 4", enc);
+        ChannelSimulator.Report second = run("window 4", enc);
+        assertEquals(first.getFramesShown(), second.getFramesShown());
+        assertEquals(first.getFramesCaptured(), second.getFramesCaptured());
+        assertEquals(first.getRetransmissionRatio(), second.getRetransmissionRatio(), 0);
+    }
+
+    private static ChannelSimulator.Report run(String mode, Supplier<PhosphrEncoder> enc) {
+        return ChannelSimulator.exampleChannel().build().run(enc.get(), ChannelSimulator.decoderFor(mode));
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DecoderSinksTest {
+
+    private static final int PACKET_SIZE = 100;
+    // the last packet is short
+    private static final byte[] DATA = randomData(PACKET_SIZE * 9 + 37);
+    private static final int PACKETS = 10;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void heap() throws IOException {
+        DecoderSink sink = DecoderSinks.heap();
+        sink.start(PACKETS * PACKET_SIZE);
+        assertFalse(sink.resume(PACKETS * PACKET_SIZE));
+        writeShuffled(sink);
+        sink.finish(DATA.length);
+        assertArrayEquals(DATA, sink.getResult().get());
+        // a copy racing the last packet changes nothing
+        sink.write(0, ByteBuffer.wrap(new byte[PACKET_SIZE]));
+        assertArrayEquals(DATA, sink.getResult().get());
+    }
+
+    @Test
+    public void heapStartDropsResult() throws IOException {
+        DecoderSink sink = DecoderSinks.heap();
+        sink.start(PACKETS * PACKET_SIZE);
+        writeShuffled(sink);
+        sink.finish(DATA.length);
+        sink.start(PACKET_SIZE);
+        assertFalse(sink.getResult().isPresent());
+    }
+
+    @Test
+    public void fileChannel() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[5000]);
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.fileChannel(channel);
+            sink.start(PACKETS * PACKET_SIZE);
+            writeShuffled(sink);
+            sink.finish(DATA.length);
+        }
+        assertArrayEquals(DATA, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void fileChannelResumeKeepsData() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.fileChannel(channel);
+            sink.start(PACKETS * PACKET_SIZE);
+            writePackets(sink, 0, 5);
+            sink.flush();
+        }
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.fileChannel(channel);
+            assertTrue(sink.resume(PACKETS * PACKET_SIZE));
+            writePackets(sink, 5, PACKETS);
+            sink.finish(DATA.length);
+        }
+        assertArrayEquals(DATA, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void mapped() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.mapped(channel);
+            sink.start(PACKETS * PACKET_SIZE);
+            writeShuffled(sink);
+            sink.finish(DATA.length);
+        }
+        assertArrayEquals(DATA, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void mappedResumeKeepsData() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.mapped(channel);
+            sink.start(PACKETS * PACKET_SIZE);
+            writePackets(sink, 5, PACKETS);
+            sink.flush();
+        }
+        try (FileChannel channel = open(file)) {
+            DecoderSink sink = DecoderSinks.mapped(channel);
+            assertTrue(sink.resume(PACKETS * PACKET_SIZE));
+            writePackets(sink, 0, 5);
+            sink.finish(DATA.length);
+        }
+        assertArrayEquals(DATA, Files.readAllBytes(file));
+    }
+
+    @Test
+    public void streamingWritesInOrder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DecoderSink sink = DecoderSinks.streaming(Channels.newChannel(out));
+        sink.start(PACKETS * PACKET_SIZE);
+        writePackets(sink, 3, 6);
+        assertArrayEquals(new byte[0], out.toByteArray());
+        writePackets(sink, 0, 1);
+        assertArrayEquals(Arrays.copyOf(DATA, PACKET_SIZE), out.toByteArray());
+        // copies of written and waiting packets
+        writePackets(sink, 0, 1);
+        writePackets(sink, 4, 5);
+        writeShuffled(sink);
+        sink.finish(DATA.length);
+        assertArrayEquals(DATA, out.toByteArray());
+    }
+
+    @Test
+    public void streamingSkipsOverlap() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DecoderSink sink = DecoderSinks.streaming(Channels.newChannel(out));
+        sink.start(DATA.length);
+        // packed Data can start inside what was written
+        sink.write(0, ByteBuffer.wrap(DATA, 0, 250));
+        sink.write(200, ByteBuffer.wrap(DATA, 200, DATA.length - 200));
+        sink.finish(DATA.length);
+        assertArrayEquals(DATA, out.toByteArray());
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static void writeShuffled(DecoderSink sink) throws IOException {
+        int[] order = { 7, 2, 9, 0, 4, 4, 1, 8, 3, 6, 5, 0 };
+        for (int seq : order) {
+            writePackets(sink, seq, seq + 1);
+        }
+    }
+
+    private static void writePackets(DecoderSink sink, int first, int end) throws IOException {
+        for (int seq = first; seq < end; seq++) {
+            int offset = seq * PACKET_SIZE;
+            sink.write(offset, ByteBuffer.wrap(DATA, offset, Math.min(PACKET_SIZE, DATA.length - offset)));
+        }
+    }
+
+}
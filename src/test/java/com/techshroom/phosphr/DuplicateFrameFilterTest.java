@@ -0,0 +1,113 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.RGBLuminanceSource;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+
+public class DuplicateFrameFilterTest {
+
+    /**
+     * Fails to read the first few frames it is given, then answers the rest.
+     */
+    private static final class FlakyDecoder implements PhosphrDecoder {
+
+        private final ByteMatrix reply = new ByteMatrix(1, 1);
+        private int failures;
+        private int calls;
+
+        FlakyDecoder(int failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public Optional<ByteMatrix> consumeImage(BinaryBitmap image) {
+            calls++;
+            if (failures > 0) {
+                failures--;
+                return Optional.empty();
+            }
+            return Optional.of(reply);
+        }
+
+        @Override
+        public Optional<byte[]> getResult() {
+            return Optional.empty();
+        }
+
+    }
+
+    @Test
+    public void skipsCopiesOfAnAnsweredFrame() {
+        FlakyDecoder decoder = new FlakyDecoder(0);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(decoder);
+        assertSame(decoder.reply, filter.consume(frame(0)).get());
+        assertSame(decoder.reply, filter.consume(frame(0)).get());
+        assertSame(decoder.reply, filter.consume(frame(0)).get());
+        assertEquals(1, decoder.calls);
+        assertEquals(2, filter.getSkippedFrames());
+        filter.consume(frame(255));
+        assertEquals(2, decoder.calls);
+    }
+
+    @Test
+    public void retriesCopiesOfAFailedFrame() {
+        FlakyDecoder decoder = new FlakyDecoder(2);
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(decoder);
+        assertFalse(filter.consume(frame(0)).isPresent());
+        assertFalse(filter.consume(frame(0)).isPresent());
+        assertSame(decoder.reply, filter.consume(frame(0)).get());
+        // read at last, now copies are skipped
+        assertSame(decoder.reply, filter.consume(frame(0)).get());
+        assertEquals(3, decoder.calls);
+        assertEquals(1, filter.getSkippedFrames());
+    }
+
+    @Test
+    public void skipsCopiesOfHeldBackData() {
+        StandardPhosphrDecoder decoder = Fixtures.startedDecoder(100, 16,
+                AckPolicy.builder().packets(4).ackGaps(false).build());
+        DuplicateFrameFilter filter = new DuplicateFrameFilter(decoder);
+        // read but not answered, the copies aren't counted towards the next
+        // answer
+        assertFalse(filter.consume(data(0)).isPresent());
+        assertFalse(filter.consume(data(0)).isPresent());
+        assertFalse(filter.consume(data(0)).isPresent());
+        assertEquals(2, filter.getSkippedFrames());
+        assertFalse(filter.consume(data(1)).isPresent());
+        assertFalse(filter.consume(data(2)).isPresent());
+        assertTrue(filter.consume(data(3)).isPresent());
+        // a copy of the answered frame gets the same answer
+        assertTrue(filter.consume(data(3)).isPresent());
+        assertEquals(3, filter.getSkippedFrames());
+    }
+
+    private static LuminanceSource data(int seq) {
+        return Fixtures.frame(MsgHelper.encode(PhosphrMessage.newBuilder()
+                .setSequence(seq)
+                .setData(Data.newBuilder().setContent(ByteString.copyFrom(new byte[16])))
+                .build(), PayloadFormat.BINARY));
+    }
+
+    private static LuminanceSource frame(int gray) {
+        int[] pixels = new int[32 * 32];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = gray << 16 | gray << 8 | gray;
+        }
+        return new RGBLuminanceSource(32, 32, pixels);
+    }
+
+}
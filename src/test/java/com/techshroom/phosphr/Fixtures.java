@@ -0,0 +1,84 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.phosphr.ChannelLuminanceSource.Channel;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+import com.techshroom.protos.Start;
+
+/**
+ * Data, frames and decoders shared by the tests.
+ */
+final class Fixtures {
+
+    private static final FrameRenderer RENDERER = new FrameRenderer(2);
+
+    /**
+     * The same bytes for the same size.
+     */
+    static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * A clean capture of a symbol, as if from a camera pointed at the display.
+     */
+    static BinaryBitmap bitmap(ByteMatrix symbol) {
+        return new BinaryBitmap(new HybridBinarizer(frame(symbol)));
+    }
+
+    /**
+     * The same capture, before it is binarized.
+     */
+    static LuminanceSource frame(ByteMatrix symbol) {
+        return new ByteMatrixLuminanceSource(symbol, RENDERER);
+    }
+
+    /**
+     * A clean color capture of a frame made by
+     * {@link MsgHelper#mergePlanes(java.util.List)}, split into its red, green
+     * and blue planes.
+     */
+    static BinaryBitmap[] planes(ByteMatrix frame) {
+        int[] pixels = RENDERER.renderPlanes(frame, null);
+        int width = RENDERER.getWidth(frame);
+        int height = RENDERER.getHeight(frame);
+        BinaryBitmap[] planes = new BinaryBitmap[MsgHelper.PLANES];
+        for (Channel channel : Channel.values()) {
+            planes[channel.ordinal()] = new BinaryBitmap(new HybridBinarizer(
+                    new ChannelLuminanceSource(pixels, width, height, channel)));
+        }
+        return planes;
+    }
+
+    /**
+     * A decoder that has read the Start of a selective ack transfer of binary
+     * packets.
+     */
+    static StandardPhosphrDecoder startedDecoder(int packets, int packetSize, AckPolicy ackPolicy) {
+        StandardPhosphrDecoder decoder = new StandardPhosphrDecoder(DecoderSinks.heap(), PhosphrListener.NONE,
+                ackPolicy);
+        assertTrue(decoder.processMessage(PhosphrMessage.newBuilder()
+                .setSequence(0)
+                .setStart(Start.newBuilder()
+                        .setPacketCount(packets)
+                        .setPacketSize(packetSize)
+                        .setFormat(PayloadFormat.BINARY)
+                        .setSelectiveAck(true))
+                .build(), false).isPresent());
+        return decoder;
+    }
+
+    private Fixtures() {
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.techshroom.protos.PayloadFormat;
+
+/**
+ * Whole transfers through clean frames, large enough to have symbols that
+ * the single finder pattern search can't read.
+ */
+public class LoopbackTransferTest {
+
+    @Test
+    public void binary64k() {
+        transfer(64 * 1024, PayloadFormat.BINARY);
+    }
+
+    @Test
+    public void base64_64k() {
+        transfer(64 * 1024, PayloadFormat.BASE64);
+    }
+
+    @Test
+    public void binary256k() {
+        transfer(256 * 1024, PayloadFormat.BINARY);
+    }
+
+    private static void transfer(int size, PayloadFormat format) {
+        byte[] data = randomData(size);
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(data, format);
+        StandardPhosphrDecoder dec = new StandardPhosphrDecoder();
+        // every Data is read, plus the Start, End and each one's echo
+        int packets = (int) Math.ceil(size / (format == PayloadFormat.BINARY ? 2900.0 : 2048.0));
+        int maxFrames = packets * 2 + 4;
+        List<BinaryBitmap> replies = new ArrayList<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + maxFrames + " frames", frame < maxFrames);
+            ByteMatrix next = enc.getNextImage(replies.iterator());
+            replies.clear();
+            Optional<ByteMatrix> reply = dec.consumeImage(bitmap(next));
+            if (reply.isPresent()) {
+                replies.add(bitmap(reply.get()));
+            }
+        }
+        assertArrayEquals(data, dec.getResult().get());
+    }
+
+}
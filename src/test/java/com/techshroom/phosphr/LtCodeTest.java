@@ -0,0 +1,102 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.techshroom.protos.FountainSymbol;
+
+public class LtCodeTest {
+
+    private static final int BLOCK_SIZE = 16;
+
+    @Test
+    public void sourceSymbolsAreTheBlocks() {
+        LtCode code = new LtCode(10);
+        for (int id = 0; id < 10; id++) {
+            assertArrayEquals(new int[] { id }, code.blocksFor(id));
+        }
+    }
+
+    @Test
+    public void repairSymbolsPickDistinctBlocksFromTheId() {
+        LtCode code = new LtCode(50);
+        for (int id = 50; id < 1000; id++) {
+            int[] blocks = code.blocksFor(id);
+            assertArrayEquals(blocks, new LtCode(50).blocksFor(id));
+            assertTrue(blocks.length >= 1 && blocks.length <= 50);
+            BitSet seen = new BitSet();
+            for (int b : blocks) {
+                assertTrue(b >= 0 && b < 50);
+                assertFalse("block " + b + " picked twice for " + id, seen.get(b));
+                seen.set(b);
+            }
+        }
+    }
+
+    @Test
+    public void peelsRepairSymbolsOnly() {
+        byte[] data = randomData(20 * BLOCK_SIZE - 5);
+        LtCode code = new LtCode(20);
+        FountainPhosphrDecoder decoder = new FountainPhosphrDecoder();
+        // skip the source symbols, every block has to be peeled
+        int id = code.getBlockCount();
+        while (!decoder.getResult().isPresent()) {
+            assertTrue("not decoded after " + id + " symbols", id < 500);
+            decoder.readSymbol(id, symbol(code, data, id));
+            id++;
+        }
+        assertArrayEquals(data, decoder.getResult().get());
+    }
+
+    @Test
+    public void peelsAroundLostSymbols() {
+        byte[] data = randomData(40 * BLOCK_SIZE);
+        LtCode code = new LtCode(40);
+        FountainPhosphrDecoder decoder = new FountainPhosphrDecoder();
+        Random loss = new Random(7);
+        for (int id = 0; !decoder.getResult().isPresent(); id++) {
+            assertTrue("not decoded after " + id + " symbols", id < 1000);
+            if (loss.nextInt(3) == 0) {
+                continue;
+            }
+            decoder.readSymbol(id, symbol(code, data, id));
+            // repeats change nothing
+            decoder.readSymbol(id, symbol(code, data, id));
+        }
+        assertArrayEquals(data, decoder.getResult().get());
+    }
+
+    @Test
+    public void singleBlock() {
+        byte[] data = randomData(3);
+        LtCode code = new LtCode(1);
+        FountainPhosphrDecoder decoder = new FountainPhosphrDecoder();
+        decoder.readSymbol(5, symbol(code, data, 5));
+        assertArrayEquals(data, decoder.getResult().get());
+    }
+
+    // as FountainPhosphrEncoder makes them
+    private static FountainSymbol symbol(LtCode code, byte[] data, int id) {
+        byte[] content = new byte[BLOCK_SIZE];
+        for (int b : code.blocksFor(id)) {
+            int from = b * BLOCK_SIZE;
+            LtCode.xorInto(content, Arrays.copyOfRange(data, from, from + BLOCK_SIZE));
+        }
+        return FountainSymbol.newBuilder()
+                .setTransferSize(data.length)
+                .setBlockCount(code.getBlockCount())
+                .setBlockSize(BLOCK_SIZE)
+                .setContent(ByteString.copyFrom(content))
+                .build();
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Encoders shown to two receivers at once, that miss different frames,
+ * restart or stop watching.
+ */
+public class MultiReceiverTest {
+
+    private static final byte[] DATA = randomData(25_000);
+    private static final int CHANGE_FRAME = 6;
+    private static final int MAX_FRAMES = 300;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A receiver watching the frames, returns its reply if it has one.
+     */
+    private interface Watcher {
+
+        Optional<ByteMatrix> watch(int frame, BinaryBitmap image);
+
+    }
+
+    @Test
+    public void bothReceive() {
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, EncoderSettings.builder()
+                .receivers(2)
+                .windowSize(4)
+                .build());
+        StandardPhosphrDecoder first = new StandardPhosphrDecoder();
+        StandardPhosphrDecoder second = new StandardPhosphrDecoder();
+        // each misses frames the other sees
+        transfer(enc, (frame, image) -> frame % 3 == 1 ? Optional.empty() : first.consumeImage(image),
+                (frame, image) -> frame % 3 == 2 ? Optional.empty() : second.consumeImage(image));
+        assertArrayEquals(DATA, first.getResult().get());
+        assertArrayEquals(DATA, second.getResult().get());
+    }
+
+    @Test
+    public void restartedReceiverCarriesOn() throws IOException {
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, EncoderSettings.builder()
+                .receivers(2)
+                .windowSize(4)
+                .resumable(true)
+                .build());
+        StandardPhosphrDecoder first = new StandardPhosphrDecoder();
+        Path out = folder.newFile().toPath();
+        Path checkpointFile = folder.newFile().toPath();
+        Receiver[] second = { new Receiver(out, checkpointFile) };
+        // the new decoder replies with a receiver id the encoder hasn't seen
+        transfer(enc, (frame, image) -> first.consumeImage(image), (frame, image) -> {
+            if (frame == CHANGE_FRAME) {
+                second[0].close();
+                second[0] = new Receiver(out, checkpointFile);
+            }
+            return second[0].decoder.consumeImage(image);
+        });
+        assertTrue(second[0].decoder.isFinished());
+        second[0].close();
+        assertArrayEquals(DATA, first.getResult().get());
+        assertArrayEquals(DATA, Files.readAllBytes(out));
+    }
+
+    @Test
+    public void receiverLeaves() {
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, EncoderSettings.builder()
+                .receivers(2)
+                .windowSize(4)
+                .build());
+        StandardPhosphrDecoder first = new StandardPhosphrDecoder();
+        StandardPhosphrDecoder second = new StandardPhosphrDecoder();
+        transfer(enc, (frame, image) -> first.consumeImage(image),
+                (frame, image) -> frame >= CHANGE_FRAME ? Optional.empty() : second.consumeImage(image));
+        assertArrayEquals(DATA, first.getResult().get());
+    }
+
+    @Test
+    public void mostNeededLostShownFirst() {
+        List<Integer> again = new ArrayList<>();
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, EncoderSettings.builder()
+                .receivers(2)
+                .windowSize(8)
+                .listener(new PhosphrListener() {
+
+                    @Override
+                    public void dataShown(int firstPacket, int packets, boolean retransmission) {
+                        if (retransmission) {
+                            again.add(firstPacket);
+                        }
+                    }
+
+                })
+                .build());
+        StandardPhosphrDecoder first = new StandardPhosphrDecoder();
+        StandardPhosphrDecoder second = new StandardPhosphrDecoder();
+        // frame 0 is the Start and frame n + 1 Data n. Both miss Data 3, only
+        // the second misses Data 1, and the replies to Data 2 are lost, so
+        // both losses are found at once
+        transfer(enc, (frame, image) -> {
+            Optional<ByteMatrix> reply = frame == 4 ? Optional.empty() : first.consumeImage(image);
+            return frame == 3 ? Optional.empty() : reply;
+        }, (frame, image) -> {
+            Optional<ByteMatrix> reply = frame == 2 || frame == 4 ? Optional.empty() : second.consumeImage(image);
+            return frame == 3 ? Optional.empty() : reply;
+        });
+        assertEquals(3, (int) again.get(0));
+        assertEquals(1, (int) again.get(1));
+    }
+
+    // replies to each frame arrive with the next
+    private static void transfer(PhosphrEncoder enc, Watcher... watchers) {
+        List<BinaryBitmap> replies = new ArrayList<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + MAX_FRAMES + " frames", frame < MAX_FRAMES);
+            ByteMatrix next = enc.getNextImage(replies.iterator());
+            replies.clear();
+            for (Watcher watcher : watchers) {
+                Optional<ByteMatrix> reply = watcher.watch(frame, bitmap(next));
+                reply.ifPresent(r -> replies.add(bitmap(r)));
+            }
+        }
+    }
+
+    private static final class Receiver implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final TransferCheckpoint checkpoint;
+        private final StandardPhosphrDecoder decoder;
+
+        Receiver(Path out, Path checkpointFile) {
+            try {
+                this.channel = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                this.checkpoint = TransferCheckpoint.open(checkpointFile, 3);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.decoder = new StandardPhosphrDecoder(DecoderSinks.fileChannel(channel), PhosphrListener.NONE,
+                    checkpoint);
+        }
+
+        @Override
+        public void close() {
+            try {
+                checkpoint.close();
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+}
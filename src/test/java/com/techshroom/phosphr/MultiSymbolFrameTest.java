@@ -0,0 +1,124 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.planes;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Frames holding several Data, tiled or in color planes, read whole or one
+ * plane at a time.
+ */
+public class MultiSymbolFrameTest {
+
+    // 12 binary packets
+    private static final byte[] DATA = randomData(12 * 2900);
+    private static final int MAX_FRAMES = 100;
+
+    /**
+     * The Data shown in each frame.
+     */
+    private static final class Run implements PhosphrListener {
+
+        private final List<List<Integer>> frames = new ArrayList<>();
+        private int maxInFlight;
+
+        @Override
+        public void dataShown(int first, int count, boolean retransmission) {
+            frames.get(frames.size() - 1).add(first);
+        }
+
+        @Override
+        public void windowChanged(int inFlight) {
+            maxInFlight = Math.max(maxInFlight, inFlight);
+        }
+
+        int mostDataInAFrame() {
+            int most = 0;
+            for (List<Integer> frame : frames) {
+                // shown at most once each
+                assertEquals(frame.size(), new HashSet<>(frame).size());
+                most = Math.max(most, frame.size());
+            }
+            return most;
+        }
+
+    }
+
+    @Test
+    public void tiledFrames() {
+        Run run = run(EncoderSettings.builder().symbolsPerFrame(4).windowSize(8), false);
+        assertEquals(4, run.mostDataInAFrame());
+    }
+
+    @Test
+    public void colorPlanes() {
+        Run run = run(EncoderSettings.builder().colorPlanes(true).windowSize(6), true);
+        assertEquals(3, run.mostDataInAFrame());
+    }
+
+    @Test
+    public void tiledColorPlanes() {
+        Run run = run(EncoderSettings.builder().colorPlanes(true).symbolsPerFrame(2).windowSize(6), true);
+        assertEquals(6, run.mostDataInAFrame());
+    }
+
+    @Test
+    public void colorPlanesSeenInGrayscale() {
+        // the decoder can't ask for color planes, so each frame has one Data
+        Run run = run(EncoderSettings.builder().colorPlanes(true).windowSize(6), false);
+        assertEquals(1, run.mostDataInAFrame());
+    }
+
+    @Test
+    public void tiledFramesFillOnlyTheWindow() {
+        // the window runs out part way through a frame, what was left is put
+        // back for the next one
+        Run run = run(EncoderSettings.builder().symbolsPerFrame(4).windowSize(3), false);
+        assertEquals(3, run.mostDataInAFrame());
+        assertEquals(3, run.maxInFlight);
+    }
+
+    @Test
+    public void colorPlanesFillOnlyTheWindow() {
+        Run run = run(EncoderSettings.builder().colorPlanes(true).windowSize(2), true);
+        assertEquals(2, run.mostDataInAFrame());
+        assertEquals(2, run.maxInFlight);
+    }
+
+    private static Run run(EncoderSettings.Builder settings, boolean color) {
+        Run run = new Run();
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, settings.listener(run).build());
+        StandardPhosphrDecoder dec = new StandardPhosphrDecoder();
+        List<BinaryBitmap> replies = new ArrayList<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + MAX_FRAMES + " frames", frame < MAX_FRAMES);
+            run.frames.add(new ArrayList<>());
+            ByteMatrix next = enc.getNextImage(replies.iterator());
+            replies.clear();
+            Optional<ByteMatrix> reply;
+            if (color) {
+                BinaryBitmap[] planes = planes(next);
+                reply = dec.consumePlanes(planes[0], planes[1], planes[2]);
+            } else {
+                reply = dec.consumeImage(bitmap(next));
+            }
+            reply.ifPresent(r -> replies.add(bitmap(r)));
+        }
+        assertArrayEquals(DATA, dec.getResult().get());
+        return run;
+    }
+
+}
@@ -0,0 +1,149 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * Paced encoders on a simulated clock, each frame taking as long as the
+ * encoder asks.
+ */
+public class PacedEncoderTest {
+
+    // 30 binary packets
+    private static final byte[] DATA = randomData(30 * 2900);
+    private static final int MAX_FRAMES = 300;
+    private static final long INITIAL_FRAME_NANOS = TimeUnit.SECONDS.toNanos(1) / 10;
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+    }
+
+    /**
+     * What the encoder did on each frame.
+     */
+    private static final class Run implements PhosphrListener {
+
+        private final List<Long> frameNanos = new ArrayList<>();
+        private final List<Integer> inFlight = new ArrayList<>();
+
+        @Override
+        public void windowChanged(int inFlight) {
+            this.inFlight.add(inFlight);
+        }
+
+        int cuts() {
+            int cuts = 0;
+            for (int i = 1; i < frameNanos.size(); i++) {
+                if (frameNanos.get(i) > frameNanos.get(i - 1)) {
+                    cuts++;
+                }
+            }
+            return cuts;
+        }
+
+        long last() {
+            return frameNanos.get(frameNanos.size() - 1);
+        }
+
+    }
+
+    @Test
+    public void rateRisesWhileNothingIsLost() {
+        Run run = run(EncoderSettings.builder().windowSize(16).maxFrameRate(30), 2, frame -> false);
+        assertEquals(INITIAL_FRAME_NANOS, (long) run.frameNanos.get(0));
+        assertEquals(0, run.cuts());
+        assertEquals(TimeUnit.SECONDS.toNanos(1) / 30, (long) run.last());
+    }
+
+    @Test
+    public void fewLossesAreNotCut() {
+        // the camera missing a frame now and then
+        Run run = run(EncoderSettings.builder().windowSize(16).maxFrameRate(30), 2,
+                frame -> frame >= 12 && frame < 16 && frame % 2 == 0);
+        assertEquals(0, run.cuts());
+    }
+
+    @Test
+    public void cutOnceForABurstOfLosses() {
+        // every other frame lost for a while, found over several replies
+        Run run = run(EncoderSettings.builder().windowSize(16).maxFrameRate(30), 2,
+                frame -> frame >= 12 && frame < 22 && frame % 2 == 0);
+        assertEquals(1, run.cuts());
+        long cut = Collections.max(run.frameNanos.subList(12, run.frameNanos.size()));
+        assertTrue(run.last() < cut);
+    }
+
+    @Test
+    public void windowCoversTheRoundTrip() {
+        int replyDelay = 4;
+        Run run = run(EncoderSettings.builder().windowSize(32).maxFrameRate(10), replyDelay, frame -> false);
+        // no reply can arrive sooner, the round trip isn't known yet
+        for (int inFlight : run.inFlight.subList(0, replyDelay + 1)) {
+            assertTrue(inFlight <= 2);
+        }
+        // then new Data every frame, each acknowledged on the frame after the
+        // reply delay
+        assertEquals(replyDelay + 1, (int) Collections.max(run.inFlight));
+    }
+
+    @Test
+    public void windowIsBounded() {
+        Run run = run(EncoderSettings.builder().windowSize(4).maxFrameRate(10), 4, frame -> false);
+        assertEquals(4, (int) Collections.max(run.inFlight));
+    }
+
+    private static Run run(EncoderSettings.Builder settings, int replyDelay, IntPredicate dropped) {
+        FakeTicker ticker = new FakeTicker();
+        Run run = new Run();
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, settings
+                .paced(true)
+                .ticker(ticker)
+                .listener(run)
+                .build());
+        StandardPhosphrDecoder dec = new StandardPhosphrDecoder();
+        // replies sent while each frame was shown, oldest first
+        Deque<List<BinaryBitmap>> replies = new ArrayDeque<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + MAX_FRAMES + " frames", frame < MAX_FRAMES);
+            List<BinaryBitmap> arrived = replies.size() > replyDelay
+                    ? replies.removeFirst()
+                    : Collections.emptyList();
+            ByteMatrix image = enc.getNextImage(arrived.iterator());
+            run.frameNanos.add(enc.getFrameNanos());
+            ticker.nanos += enc.getFrameNanos();
+            List<BinaryBitmap> sent = new ArrayList<>();
+            if (!dropped.test(frame)) {
+                Optional<ByteMatrix> reply = dec.consumeImage(bitmap(image));
+                reply.ifPresent(r -> sent.add(bitmap(r)));
+            }
+            replies.addLast(sent);
+        }
+        assertTrue(dec.isFinished());
+        return run;
+    }
+
+}
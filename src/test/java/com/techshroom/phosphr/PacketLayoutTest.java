@@ -0,0 +1,76 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.techshroom.protos.PayloadFormat;
+
+public class PacketLayoutTest {
+
+    private static final int PACKET_SIZE = 256;
+
+    @Test
+    public void qrCodeLadder() {
+        assertEquals(ImmutableList.of(
+                "11 packets at L",
+                "8 packets at M",
+                "6 packets at Q",
+                "4 packets at H",
+                "2 packets at H",
+                "1 packets at H"), names(PacketLayout.ladder(PayloadFormat.BINARY, PACKET_SIZE, SymbolCodecs.qrCode())));
+    }
+
+    @Test
+    public void layoutsFit() {
+        for (PayloadFormat format : new PayloadFormat[] { PayloadFormat.BINARY, PayloadFormat.BASE64 }) {
+            for (SymbolCodec codec : new SymbolCodec[] { SymbolCodecs.qrCode(), SymbolCodecs.dataMatrix(),
+                    SymbolCodecs.aztec() }) {
+                List<PacketLayout> ladder = PacketLayout.ladder(format, PACKET_SIZE, codec);
+                for (int i = 0; i < ladder.size(); i++) {
+                    PacketLayout layout = ladder.get(i);
+                    int overhead = maxMessage(format, codec, ErrorCorrectionLevel.L)
+                            - PacketLayout.maxPacketSize(format, codec);
+                    int message = layout.getPackets() * PACKET_SIZE + overhead;
+                    assertTrue(layout + " too big for " + codec.getSymbology(), layout.getPackets() == 1
+                            || message <= maxMessage(format, codec, layout.getEcLevel()));
+                    if (i > 0) {
+                        // each step is more robust than the last
+                        PacketLayout last = ladder.get(i - 1);
+                        assertTrue(layout.getPackets() < last.getPackets()
+                                || layout.getEcLevel().ordinal() > last.getEcLevel().ordinal());
+                        assertTrue(layout.getPackets() <= last.getPackets());
+                    }
+                }
+                assertEquals(1, ladder.get(ladder.size() - 1).getPackets());
+            }
+        }
+    }
+
+    @Test
+    public void levelsThatDontChangeCapacityAreSkipped() {
+        // data matrix has one error correction level
+        List<PacketLayout> ladder = PacketLayout.ladder(PayloadFormat.BINARY, PACKET_SIZE, SymbolCodecs.dataMatrix());
+        assertEquals(ErrorCorrectionLevel.L, ladder.get(0).getEcLevel());
+        for (PacketLayout layout : ladder.subList(1, ladder.size())) {
+            assertEquals(ErrorCorrectionLevel.H, layout.getEcLevel());
+        }
+    }
+
+    // the bytes of message that fit a symbol at the level
+    private static int maxMessage(PayloadFormat format, SymbolCodec codec, ErrorCorrectionLevel ecLevel) {
+        int capacity = codec.getCapacity(ecLevel);
+        return format == PayloadFormat.BINARY ? capacity - 1 : capacity * 3 / 4;
+    }
+
+    private static List<String> names(List<PacketLayout> ladder) {
+        return ladder.stream().map(PacketLayout::toString).collect(Collectors.toList());
+    }
+
+}
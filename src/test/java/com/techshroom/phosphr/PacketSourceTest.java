@@ -0,0 +1,86 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.Test;
+
+public class PacketSourceTest {
+
+    private static final int SIZE = 200_000;
+
+    @Test
+    public void deflatesCompressibleData() throws DataFormatException {
+        byte[] data = withRandomPart(SIZE / 2);
+        Optional<PacketSource> deflated = PacketSource.deflate(source(data), Deflater.DEFAULT_COMPRESSION);
+        assertTrue(deflated.isPresent());
+        assertArrayEquals(data, inflate(deflated.get(), data.length));
+    }
+
+    @Test
+    public void givesUpOnRandomData() {
+        byte[] data = withRandomPart(SIZE);
+        assertFalse(PacketSource.deflate(source(data), Deflater.DEFAULT_COMPRESSION).isPresent());
+    }
+
+    @Test
+    public void needsToSaveATwentieth() throws DataFormatException {
+        // deflate can't shrink random bytes, so these deflate to a little
+        // over the random part
+        byte[] saves = withRandomPart(SIZE * 92 / 100);
+        Optional<PacketSource> deflated = PacketSource.deflate(source(saves), Deflater.BEST_COMPRESSION);
+        assertTrue(deflated.isPresent());
+        assertTrue(deflated.get().size() <= SIZE - SIZE / 20);
+        assertArrayEquals(saves, inflate(deflated.get(), saves.length));
+
+        byte[] barelySaves = withRandomPart(SIZE * 97 / 100);
+        assertFalse(PacketSource.deflate(source(barelySaves), Deflater.BEST_COMPRESSION).isPresent());
+    }
+
+    @Test
+    public void deflatesAcrossReads() throws DataFormatException {
+        // larger than one 64KB read, and the first output buffer
+        byte[] data = withRandomPart(SIZE * 3 / 4);
+        Optional<PacketSource> deflated = PacketSource.deflate(source(data), Deflater.BEST_SPEED);
+        assertTrue(deflated.get().size() > 1 << 16);
+        assertArrayEquals(data, inflate(deflated.get(), data.length));
+    }
+
+    private static PacketSource source(byte[] data) {
+        return PacketSource.of(ByteBuffer.wrap(data));
+    }
+
+    // random bytes, then zeros
+    private static byte[] withRandomPart(int randomSize) {
+        byte[] data = new byte[SIZE];
+        byte[] random = new byte[randomSize];
+        new Random(randomSize).nextBytes(random);
+        System.arraycopy(random, 0, data, 0, randomSize);
+        return data;
+    }
+
+    private static byte[] inflate(PacketSource deflated, int size) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflated.read(0, (int) deflated.size()).toByteArray());
+            byte[] out = new byte[size];
+            int length = 0;
+            while (!inflater.finished()) {
+                length += inflater.inflate(out, length, out.length - length);
+            }
+            assertTrue(inflater.getRemaining() == 0 && length == size);
+            return out;
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+public class PipelinedFrameEncoderTest {
+
+    /**
+     * Makes frames as wide as their number, each to be shown for that many
+     * microseconds.
+     */
+    private static final class CountingEncoder implements PhosphrEncoder {
+
+        private final int frames;
+        private volatile int made;
+
+        CountingEncoder(int frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public boolean isDataSendCompleted() {
+            return made == frames;
+        }
+
+        @Override
+        public ByteMatrix getNextImage(Iterator<BinaryBitmap> image) {
+            made++;
+            return new ByteMatrix(made, 1);
+        }
+
+        @Override
+        public long getFrameNanos() {
+            return TimeUnit.MICROSECONDS.toNanos(made);
+        }
+
+    }
+
+    @Test
+    public void holdTimeComesWithItsFrame() throws Exception {
+        CountingEncoder encoder = new CountingEncoder(5);
+        try (PipelinedFrameEncoder pipeline = new PipelinedFrameEncoder(encoder, 3)) {
+            // let the encoder run ahead
+            while (encoder.made < 3) {
+                Thread.sleep(1);
+            }
+            for (int frame = 1; frame <= 5; frame++) {
+                ByteMatrix image = pipeline.nextImage(10, TimeUnit.SECONDS).get();
+                assertEquals(frame, image.getWidth());
+                assertEquals(TimeUnit.MICROSECONDS.toNanos(frame), pipeline.getFrameNanos());
+            }
+            pipeline.getCompletion().get(10, TimeUnit.SECONDS);
+            assertTrue(encoder.isDataSendCompleted());
+        }
+    }
+
+}
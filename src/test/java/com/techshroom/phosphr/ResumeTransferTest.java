@@ -0,0 +1,97 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+
+/**
+ * A decoder that crashes part way through a transfer, and a new one that
+ * carries on from its checkpoint.
+ */
+public class ResumeTransferTest {
+
+    private static final byte[] DATA = randomData(25_000);
+    private static final int CRASH_FRAME = 6;
+    private static final int MAX_FRAMES = 200;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumeAfterCrash() throws IOException {
+        resumeAfterCrash(TransferCheckpoint.DEFAULT_INTERVAL, EncoderSettings.builder());
+    }
+
+    @Test
+    public void resumeAfterCrashFromRecentCheckpoint() throws IOException {
+        resumeAfterCrash(3, EncoderSettings.builder());
+    }
+
+    @Test
+    public void resumeAfterCrashWithWindow() throws IOException {
+        resumeAfterCrash(3, EncoderSettings.builder().windowSize(4));
+    }
+
+    private void resumeAfterCrash(int interval, EncoderSettings.Builder settings) throws IOException {
+        Path out = folder.newFile().toPath();
+        Path checkpointFile = folder.newFile().toPath();
+        PhosphrEncoder enc = StandardPhosphrEncoder.fromBytes(DATA, settings.resumable(true).build());
+        Receiver receiver = new Receiver(out, checkpointFile, interval);
+        List<BinaryBitmap> maps = new ArrayList<>();
+        for (int frame = 0; !enc.isDataSendCompleted(); frame++) {
+            assertTrue("not done after " + MAX_FRAMES + " frames", frame < MAX_FRAMES);
+            if (frame == CRASH_FRAME) {
+                receiver.close();
+                receiver = new Receiver(out, checkpointFile, interval);
+            }
+            ByteMatrix nextImage = enc.getNextImage(maps.iterator());
+            maps.clear();
+            Optional<ByteMatrix> img = receiver.decoder.consumeImage(bitmap(nextImage));
+            if (img.isPresent()) {
+                maps.add(bitmap(img.get()));
+            }
+        }
+        assertTrue(receiver.decoder.isFinished());
+        receiver.close();
+        assertArrayEquals(DATA, Files.readAllBytes(out));
+    }
+
+    private static final class Receiver implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final TransferCheckpoint checkpoint;
+        private final StandardPhosphrDecoder decoder;
+
+        Receiver(Path out, Path checkpointFile, int interval) throws IOException {
+            this.channel = FileChannel.open(out, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.checkpoint = TransferCheckpoint.open(checkpointFile, interval);
+            this.decoder = new StandardPhosphrDecoder(DecoderSinks.fileChannel(channel), PhosphrListener.NONE,
+                    checkpoint);
+        }
+
+        @Override
+        public void close() throws IOException {
+            checkpoint.close();
+            channel.close();
+        }
+
+    }
+
+}
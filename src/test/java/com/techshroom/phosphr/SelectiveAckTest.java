@@ -0,0 +1,94 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PhosphrMessage;
+import com.techshroom.protos.SelectiveAck;
+
+public class SelectiveAckTest {
+
+    private static final int PACKET_SIZE = 8;
+
+    @Test
+    public void encoderReadsWhatDecoderReceived() {
+        Random random = new Random(1);
+        BitSet sent = new BitSet();
+        StandardPhosphrDecoder decoder = startedDecoder(300);
+        SelectiveAck sack = null;
+        for (int i = 0; i < 200; i++) {
+            int seq = random.nextInt(300);
+            sent.set(seq);
+            sack = sendData(decoder, seq);
+        }
+        assertEquals(sent, StandardPhosphrEncoder.receivedPackets(sack, 300));
+    }
+
+    @Test
+    public void everythingBeforeTheFirstMissingIsReceived() {
+        StandardPhosphrDecoder decoder = startedDecoder(20);
+        SelectiveAck sack = null;
+        for (int seq = 0; seq < 10; seq++) {
+            sack = sendData(decoder, seq);
+        }
+        assertEquals(10, sack.getFirstMissing());
+        assertTrue(sack.getReceived().isEmpty());
+        sack = sendData(decoder, 12);
+        BitSet expected = new BitSet();
+        expected.set(0, 10);
+        expected.set(12);
+        assertEquals(expected, StandardPhosphrEncoder.receivedPackets(sack, 20));
+    }
+
+    @Test
+    public void windowIsBounded() {
+        StandardPhosphrDecoder decoder = startedDecoder(3000);
+        SelectiveAck sack = null;
+        for (int seq = 1; seq < 3000; seq += 2) {
+            sack = sendData(decoder, seq);
+        }
+        assertEquals(0, sack.getFirstMissing());
+        assertTrue(sack.getReceived().size() <= 128);
+        BitSet received = StandardPhosphrEncoder.receivedPackets(sack, 3000);
+        // only packets in the window are reported
+        assertEquals(512, received.cardinality());
+        assertTrue(received.length() <= 1024);
+        for (int seq = received.nextSetBit(0); seq >= 0; seq = received.nextSetBit(seq + 1)) {
+            assertEquals(1, seq % 2);
+        }
+    }
+
+    @Test
+    public void allReceived() {
+        StandardPhosphrDecoder decoder = startedDecoder(5);
+        SelectiveAck sack = null;
+        for (int seq = 4; seq >= 0; seq--) {
+            sack = sendData(decoder, seq);
+        }
+        BitSet expected = new BitSet();
+        expected.set(0, 5);
+        assertEquals(expected, StandardPhosphrEncoder.receivedPackets(sack, 5));
+    }
+
+    private static StandardPhosphrDecoder startedDecoder(int packets) {
+        return Fixtures.startedDecoder(packets, PACKET_SIZE, AckPolicy.defaults());
+    }
+
+    private static SelectiveAck sendData(StandardPhosphrDecoder decoder, int seq) {
+        Optional<PhosphrMessage> reply = decoder.processMessage(PhosphrMessage.newBuilder()
+                .setSequence(seq)
+                .setData(Data.newBuilder().setContent(ByteString.copyFrom(new byte[PACKET_SIZE])))
+                .build(), false);
+        assertTrue(reply.get().hasRequest());
+        return reply.get().getRequest().getSelectiveAck();
+    }
+
+}
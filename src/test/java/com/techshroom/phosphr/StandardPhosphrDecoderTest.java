@@ -0,0 +1,87 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.bitmap;
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PayloadFormat;
+import com.techshroom.protos.PhosphrMessage;
+import com.techshroom.protos.Start;
+import com.techshroom.protos.Symbology;
+
+public class StandardPhosphrDecoderTest {
+
+    private static final int PACKET_SIZE = 8;
+    private static final int PACKETS = 6;
+    private static final byte[] DATA = randomData(PACKET_SIZE * PACKETS - 3);
+
+    private static final Start RESUMABLE = Start.newBuilder()
+            .setPacketCount(PACKETS)
+            .setPacketSize(PACKET_SIZE)
+            .setFormat(PayloadFormat.BINARY)
+            .setSelectiveAck(true)
+            .setTransferId(42)
+            .setContentHash(ByteString.copyFromUtf8("content"))
+            .build();
+
+    @Test
+    public void restartInNewSettingsKeepsReceived() {
+        StandardPhosphrDecoder decoder = new StandardPhosphrDecoder();
+        start(decoder, RESUMABLE);
+        sendData(decoder, 0, 3);
+        Start echo = start(decoder, RESUMABLE.toBuilder()
+                .setFormat(PayloadFormat.BASE64)
+                .setSymbology(Symbology.AZTEC)
+                .build());
+        assertEquals(PayloadFormat.BASE64, echo.getFormat());
+        assertEquals(3, echo.getResumed().getFirstMissing());
+        // read as the new symbology
+        for (int seq = 3; seq < PACKETS; seq++) {
+            assertTrue(decoder.consumeImage(bitmap(MsgHelper.encode(data(seq), PayloadFormat.BASE64,
+                    ErrorCorrectionLevel.L, SymbolCodecs.aztec()))).isPresent());
+        }
+        assertTrue(decoder.isFinished());
+        assertArrayEquals(DATA, decoder.getResult().get());
+    }
+
+    @Test
+    public void otherTransferStartsOver() {
+        StandardPhosphrDecoder decoder = new StandardPhosphrDecoder();
+        start(decoder, RESUMABLE);
+        sendData(decoder, 0, 3);
+        Start echo = start(decoder, RESUMABLE.toBuilder().setTransferId(43).build());
+        assertFalse(echo.hasResumed());
+    }
+
+    private static Start start(StandardPhosphrDecoder decoder, Start start) {
+        return decoder.processMessage(PhosphrMessage.newBuilder()
+                .setSequence(0)
+                .setStart(start)
+                .build(), false).get().getStart();
+    }
+
+    private static void sendData(StandardPhosphrDecoder decoder, int first, int end) {
+        for (int seq = first; seq < end; seq++) {
+            decoder.processMessage(data(seq), false);
+        }
+    }
+
+    private static PhosphrMessage data(int seq) {
+        int offset = seq * PACKET_SIZE;
+        return PhosphrMessage.newBuilder()
+                .setSequence(seq)
+                .setData(Data.newBuilder()
+                        .setContent(ByteString.copyFrom(DATA, offset, Math.min(PACKET_SIZE, DATA.length - offset))))
+                .build();
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+import com.techshroom.protos.Data;
+import com.techshroom.protos.PhosphrMessage;
+
+public class SymbolTrackerTest {
+
+    private static final int FRAME_SIZE = 640;
+    // a few pixels per module, the finder pattern search can miss symbols
+    // with fewer in a frame this large
+    private static final FrameRenderer RENDERER = new FrameRenderer(3);
+
+    /**
+     * How the tracker read the frames.
+     */
+    private static final class Reads {
+
+        // left, top, width, height
+        private final List<int[]> crops = new ArrayList<>();
+        private int wholeFrames;
+
+    }
+
+    /**
+     * A large frame with a symbol somewhere in it.
+     */
+    private static final class Frame extends LuminanceSource {
+
+        private final LuminanceSource pixels;
+        private final Reads reads;
+
+        Frame(PhosphrMessage msg, int left, int top, Reads reads) {
+            super(FRAME_SIZE, FRAME_SIZE);
+            LuminanceSource symbol = symbol(msg);
+            byte[] canvas = new byte[FRAME_SIZE * FRAME_SIZE];
+            Arrays.fill(canvas, (byte) 0xFF);
+            byte[] row = null;
+            for (int y = 0; y < symbol.getHeight(); y++) {
+                row = symbol.getRow(y, row);
+                System.arraycopy(row, 0, canvas, (top + y) * FRAME_SIZE + left, symbol.getWidth());
+            }
+            this.pixels = new PlanarYUVLuminanceSource(canvas, FRAME_SIZE, FRAME_SIZE, 0, 0, FRAME_SIZE, FRAME_SIZE,
+                    false);
+            this.reads = reads;
+        }
+
+        @Override
+        public byte[] getRow(int y, byte[] row) {
+            return pixels.getRow(y, row);
+        }
+
+        @Override
+        public byte[] getMatrix() {
+            reads.wholeFrames++;
+            return pixels.getMatrix();
+        }
+
+        @Override
+        public boolean isCropSupported() {
+            return true;
+        }
+
+        @Override
+        public LuminanceSource crop(int left, int top, int width, int height) {
+            reads.crops.add(new int[] { left, top, width, height });
+            return pixels.crop(left, top, width, height);
+        }
+
+    }
+
+    @Test
+    public void readsTheNextFrameInTheSameRegion() {
+        SymbolTracker tracker = new SymbolTracker();
+        Reads reads = new Reads();
+        assertEquals(data(0), tracker.decode(frame(data(0), 100, 120, reads)));
+        // the first frame is searched whole
+        assertEquals(1, reads.wholeFrames);
+        assertEquals(0, reads.crops.size());
+        // then only the region is binarized
+        assertEquals(data(1), tracker.decode(frame(data(1), 100, 120, reads)));
+        assertEquals(data(2), tracker.decode(frame(data(2), 102, 118, reads)));
+        assertEquals(1, reads.wholeFrames);
+        assertEquals(2, reads.crops.size());
+        assertContains(reads.crops.get(1), 102, 118);
+    }
+
+    @Test
+    public void searchesTheWholeFrameWhenTheSymbolMoves() {
+        SymbolTracker tracker = new SymbolTracker();
+        Reads reads = new Reads();
+        assertEquals(data(0), tracker.decode(frame(data(0), 20, 20, reads)));
+        assertEquals(data(1), tracker.decode(frame(data(1), 400, 380, reads)));
+        // tried where it was, then found it elsewhere
+        assertEquals(1, reads.crops.size());
+        assertEquals(2, reads.wholeFrames);
+        // and tracks it there
+        assertEquals(data(2), tracker.decode(frame(data(2), 400, 380, reads)));
+        assertEquals(2, reads.wholeFrames);
+        assertContains(reads.crops.get(1), 400, 380);
+    }
+
+    // the crop covers the symbol drawn at left, top
+    private static void assertContains(int[] crop, int left, int top) {
+        int size = symbol(data(0)).getWidth();
+        assertTrue(crop[0] <= left && crop[1] <= top);
+        assertTrue(crop[0] + crop[2] >= left + size && crop[1] + crop[3] >= top + size);
+    }
+
+    private static LuminanceSource symbol(PhosphrMessage msg) {
+        return new ByteMatrixLuminanceSource(MsgHelper.encode(msg), RENDERER);
+    }
+
+    private static BinaryBitmap frame(PhosphrMessage msg, int left, int top, Reads reads) {
+        return new BinaryBitmap(new HybridBinarizer(new Frame(msg, left, top, reads)));
+    }
+
+    private static PhosphrMessage data(int seq) {
+        return PhosphrMessage.newBuilder()
+                .setSequence(seq)
+                .setData(Data.newBuilder().setContent(ByteString.copyFrom(new byte[100])))
+                .build();
+    }
+
+}
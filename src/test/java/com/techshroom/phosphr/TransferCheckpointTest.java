@@ -0,0 +1,136 @@
+package com.techshroom.phosphr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.protobuf.ByteString;
+import com.techshroom.protos.Start;
+
+public class TransferCheckpointTest {
+
+    private static final Start START = Start.newBuilder()
+            .setPacketCount(10)
+            .setPacketSize(100)
+            .setTransferId(42)
+            .setContentHash(ByteString.copyFromUtf8("content"))
+            .build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DecoderSink sink = DecoderSinks.heap();
+
+    @Test
+    public void loadsAppendedRecords() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file, 2)) {
+            checkpoint.begin(START);
+            checkpoint.received(0, 1, 100, sink);
+            checkpoint.received(3, 2, 500, sink);
+        }
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            assertEquals(START, checkpoint.getStart().get());
+            assertEquals(bits(0, 3, 4), checkpoint.getReceived());
+            assertEquals(500, checkpoint.getEnd());
+        }
+    }
+
+    @Test
+    public void dropsTornRecord() throws IOException {
+        Path file = folder.newFile().toPath();
+        long whole;
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file, 1)) {
+            checkpoint.begin(START);
+            checkpoint.received(0, 1, 100, sink);
+            whole = Files.size(file);
+            checkpoint.received(1, 1, 200, sink);
+        }
+        // the last append stopped part way
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 1);
+        }
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file, 1)) {
+            assertEquals(START, checkpoint.getStart().get());
+            assertEquals(bits(0), checkpoint.getReceived());
+            assertEquals(100, checkpoint.getEnd());
+            assertEquals(whole, Files.size(file));
+            // appends carry on after the last whole record
+            checkpoint.received(5, 1, 600, sink);
+        }
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            assertEquals(bits(0, 5), checkpoint.getReceived());
+            assertEquals(600, checkpoint.getEnd());
+        }
+    }
+
+    @Test
+    public void tornStartIsNoTransfer() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            checkpoint.begin(START);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 3);
+        }
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            assertFalse(checkpoint.getStart().isPresent());
+            assertEquals(new BitSet(), checkpoint.getReceived());
+            assertEquals(0, Files.size(file));
+        }
+    }
+
+    @Test
+    public void receivedIsKnownBeforeItIsAppended() throws IOException {
+        Path file = folder.newFile().toPath();
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file, 64)) {
+            checkpoint.begin(START);
+            checkpoint.received(2, 3, 450, sink);
+            assertEquals(bits(2, 3, 4), checkpoint.getReceived());
+            assertEquals(450, checkpoint.getEnd());
+        }
+        // never appended
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            assertEquals(START, checkpoint.getStart().get());
+            assertEquals(new BitSet(), checkpoint.getReceived());
+        }
+    }
+
+    @Test
+    public void beginDropsTheOldTransfer() throws IOException {
+        Path file = folder.newFile().toPath();
+        Start other = START.toBuilder().setTransferId(43).build();
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file, 1)) {
+            checkpoint.begin(START);
+            checkpoint.received(0, 1, 100, sink);
+            checkpoint.begin(other);
+            assertEquals(new BitSet(), checkpoint.getReceived());
+        }
+        try (TransferCheckpoint checkpoint = TransferCheckpoint.open(file)) {
+            assertEquals(other, checkpoint.getStart().get());
+            assertEquals(new BitSet(), checkpoint.getReceived());
+            checkpoint.clear();
+            assertFalse(checkpoint.getStart().isPresent());
+        }
+        assertEquals(0, Files.size(file));
+    }
+
+    private static BitSet bits(int... set) {
+        BitSet bits = new BitSet();
+        for (int i : set) {
+            bits.set(i);
+        }
+        return bits;
+    }
+
+}
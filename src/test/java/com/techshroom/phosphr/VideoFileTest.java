@@ -0,0 +1,66 @@
+package com.techshroom.phosphr;
+
+import static com.techshroom.phosphr.Fixtures.randomData;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacpp.avcodec;
+import org.bytedeco.javacpp.avformat;
+import org.bytedeco.javacpp.opencv_imgproc;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A fountain transfer recorded to a video file and read back. Skipped where
+ * the native FFmpeg and OpenCV libraries can't be loaded.
+ */
+public class VideoFileTest {
+
+    private static final byte[] DATA = randomData(8192);
+    private static final int SYMBOL_LIMIT = 100;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void loadNativeLibraries() {
+        try {
+            Loader.load(avcodec.class);
+            Loader.load(avformat.class);
+            Loader.load(opencv_imgproc.class);
+        } catch (Throwable e) {
+            Assume.assumeNoException("no native codec", e);
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File video = new File(folder.getRoot(), "transfer.mkv");
+        int symbols = new VideoFileEncoder(video).record(FountainPhosphrEncoder.fromBytes(DATA), SYMBOL_LIMIT);
+        assertTrue(symbols > 0);
+        FountainPhosphrDecoder decoder = new FountainPhosphrDecoder();
+        long frames = new VideoFileDecoder(video).decode(decoder);
+        // stopped as soon as it had the data
+        assertTrue(frames <= symbols);
+        assertArrayEquals(DATA, decoder.getResult().get());
+    }
+
+    @Test
+    public void roundTripWithRepeatedFrames() throws IOException {
+        File video = new File(folder.getRoot(), "transfer.mkv");
+        int symbols = new VideoFileEncoder(video, 3, 30, 2, avcodec.AV_CODEC_ID_FFV1)
+                .record(FountainPhosphrEncoder.fromBytes(DATA), SYMBOL_LIMIT);
+        FountainPhosphrDecoder decoder = new FountainPhosphrDecoder();
+        long frames = new VideoFileDecoder(video).decode(decoder);
+        assertTrue(frames <= symbols * 2);
+        assertArrayEquals(DATA, decoder.getResult().get());
+    }
+
+}